@@ -0,0 +1,33 @@
+package metaParser;
+
+//package private: the chars of src, failing once more than 'budget' chars are read since the last reset().
+//Regex matching reads its input char by char, backtracking included, so this bounds the work of a match attempt.
+final class BudgetedChars implements CharSequence{
+  //thrown through the matcher, caught by MetaTokenizer: never seen by users
+  static final class Exceeded extends RuntimeException{
+    private static final long serialVersionUID= 1L;
+    private Exceeded(){ super("match budget exceeded", null, false, false); }
+  }
+  private static final Exceeded exceeded= new Exceeded();
+  final CharSequence src;
+  private final long budget;
+  private long left;
+  BudgetedChars(CharSequence src, long budget){
+    assert budget > 0;
+    this.src= src;
+    this.budget= budget;
+    this.left= budget;
+  }
+  BudgetedChars reset(){ left= budget; return this; }
+  @Override public int length(){ return src.length(); }
+  @Override public char charAt(int index){
+    if (--left < 0){ throw exceeded; }
+    return src.charAt(index);
+  }
+  @Override public CharSequence subSequence(int start, int end){
+    left -= end - start;
+    if (left < 0){ throw exceeded; }
+    return src.subSequence(start, end);
+  }
+  @Override public String toString(){ return src.toString(); }
+}
@@ -1,11 +1,13 @@
 package metaParser;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.ListIterator;
 
 //package private so we do not need to make private fields or to otherwise protect from the library user
+//Iterative: the groups still open are on an explicit stack, so deep nesting costs heap, not call stack.
 record Builder<
     T extends Token<T,TK>,
     TK extends TokenKind,
@@ -15,36 +17,41 @@ record Builder<
     Err extends ErrFactory<T,TK,E,Tokenizer,Parser,Err>
   >(
   TokenTrees<T,TK,E,Tokenizer,Parser,Err> ctx,
-  ArrayList<T> output,
   ListIterator<T> i
   ){
-  Token<T,TK> myOpen(){ return output.getFirst(); } 
-  boolean commit(T open, T t){
-    TK end= ctx.closesMe(open.kind(),t.kind());
-    if (end != null){ return output.add(t); }//the group must contain the opener and the closer
-    //so we can have tokens like "{ a, b, c }" but also "(2,4]", where the open/close token are relevant
-    boolean opener= ctx.spec.openClose.keySet().contains(t.kind());
-    if (opener){
-      T tree= new Builder<>(ctx,new ArrayList<>(List.of(t)),i).build(t);
-      return !output.add(tree);
-    }
-    boolean regular= !ctx.spec.closers.contains(t.kind());
-    if(regular){ return !output.add(t); }
-    throw ctx.diagOnBadCloser(open,t);
-  }
-  T build(T open){
-    T current= open;
+  ///The group opened by 'first' and closed by one of its closers; the tokens of each open group start with its opener.
+  T build(T first){
+    var enclosing= new ArrayDeque<ArrayList<T>>();
+    var output= new ArrayList<T>(List.of(first));
     while (i.hasNext()){
-      current= i.next();
+      ctx.tokenizer.cancellation().poll(i.nextIndex());
+      T current= i.next();
+      T open= output.getFirst();
       var barrier= ctx.spec.isBarrierFor(current, open);
       if (barrier){ throw ctx.diagOnBadBarrier(open, current); }
-      if (!commit(open,current)){ continue; }
       TK groupKind= ctx.closesMe(open.kind(), current.kind());
-      return ctx.tokenizer.make(groupKind,"",
-        myOpen().line(),
-        myOpen().column(),
-        Collections.unmodifiableList(output));
+      if (groupKind != null){//the group must contain the opener and the closer
+        //so we can have tokens like "{ a, b, c }" but also "(2,4]", where the open/close token are relevant
+        output.add(current);
+        T tree= ctx.tokenizer.make(groupKind,"",
+          open.line(),
+          open.column(),
+          Collections.unmodifiableList(output));
+        if (enclosing.isEmpty()){ return tree; }
+        output= enclosing.pop();
+        output.add(tree);
+        continue;
       }
+      boolean opener= ctx.spec.openClose.keySet().contains(current.kind());
+      if (opener){
+        enclosing.push(output);
+        output= new ArrayList<>(List.of(current));
+        continue;
+      }
+      boolean regular= !ctx.spec.closers.contains(current.kind());
+      if (regular){ output.add(current); continue; }
+      throw ctx.diagOnBadCloser(open, current);
+    }
     throw new Error("Unreachable");
   }
-}
\ No newline at end of file
+}
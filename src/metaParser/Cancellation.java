@@ -0,0 +1,47 @@
+package metaParser;
+
+import java.time.Duration;
+
+///Cooperative cancellation for tokenizing, building the token tree and parsing:
+///a flag set by cancel(), and an optional deadline.
+///Set it with MetaTokenizer.cancellation(..) and MetaParser.cancellation(..); the work in progress polls it
+///every few hundred tokens and at each nested parser, and stops by throwing Cancelled.
+///A Cancellation can be shared by many tokenizers and parsers, also on different threads.
+public final class Cancellation{
+  ///Thrown by check() once cancelled: not a diagnostic, so it carries no frames and no position.
+  public static final class Cancelled extends RuntimeException{
+    private static final long serialVersionUID= 1L;
+    private Cancelled(String msg){ super(msg, null, false, false); }
+  }
+  ///Never cancelled: the default.
+  public static final Cancellation none= new Cancellation(false, 0);
+  private static final int pollMask= 255;
+  private static final Duration maxTimeout= Duration.ofNanos(Long.MAX_VALUE / 2);
+  private final boolean hasDeadline;
+  private final long deadline;//System.nanoTime based
+  private volatile boolean cancelled;
+  private Cancellation(boolean hasDeadline, long deadline){
+    this.hasDeadline= hasDeadline;
+    this.deadline= deadline;
+  }
+  ///Cancelled only by cancel().
+  public Cancellation(){ this(false, 0); }
+  ///Cancelled by cancel() or once 'timeout' has passed from now.
+  public static Cancellation withTimeout(Duration timeout){
+    long nanos= timeout.compareTo(maxTimeout) > 0 ? maxTimeout.toNanos() : timeout.toNanos();
+    return new Cancellation(true, System.nanoTime() + nanos);
+  }
+  public void cancel(){
+    offensiveUtils.Require.check(this != none, "Cancellation.none can not be cancelled");
+    cancelled= true;
+  }
+  public boolean isCancelled(){ return cancelled || pastDeadline(); }
+  private boolean pastDeadline(){ return hasDeadline && System.nanoTime() - deadline >= 0; }
+  ///Throws Cancelled if cancelled or past the deadline.
+  public void check(){
+    if (cancelled){ throw new Cancelled("cancelled"); }
+    if (pastDeadline()){ throw new Cancelled("deadline passed"); }
+  }
+  //package private: check() once every pollMask+1 counts, for loops over tokens
+  void poll(int count){ if ((count & pollMask) == 0){ check(); } }
+}
@@ -0,0 +1,49 @@
+package metaParser;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.function.IntConsumer;
+
+import utils.Bug;
+
+//package private: the bulk scan of MetaTokenizer.prepare over chunks of chars.
+//The vector scan lives in the optional module CommonsVector (vectorScan.VectorCharScan), so that this module
+//does not depend on the incubating jdk.incubator.vector: it is looked up reflectively, and used only when
+//both modules are in the boot layer (for example with --add-modules CommonsVector). Otherwise this class is the scalar scan.
+class CharScan{
+  static final CharScan instance= load();
+  private static CharScan load(){
+    if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()){ return new CharScan(); }
+    try{
+      var type= MethodType.methodType(int.class, char[].class, int.class, int.class, int[].class, IntConsumer.class, int.class);
+      return new Vector(MethodHandles.publicLookup().findStatic(Class.forName("vectorScan.VectorCharScan"), "plainPrefix", type));
+    }
+    catch(ReflectiveOperationException | LinkageError e){ return new CharScan(); }
+  }
+  ///The index of the first char in buf[from,to) that is not ASCII, is '\r' or is not allowed by whiteList (if not null);
+  ///to if there is none. For each '\n' before that index, base+index+1 is added to lineStarts, if not null.
+  int plainPrefix(char[] buf, int from, int to, WhiteList whiteList, Ints lineStarts, int base){
+    for (int i= from; i < to; i++){
+      char c= buf[i];
+      if (c >= 128 || c == '\r' || whiteList != null && !whiteList.allows(c)){ return i; }
+      if (c == '\n' && lineStarts != null){ lineStarts.add(base + i + 1); }
+    }
+    return to;
+  }
+  private static final class Vector extends CharScan{
+    //whiteLists with more ASCII ranges than this are checked by the scalar loop
+    private static final int maxRanges= 8;
+    private final MethodHandle scan;
+    Vector(MethodHandle scan){ this.scan= scan; }
+    @Override int plainPrefix(char[] buf, int from, int to, WhiteList whiteList, Ints lineStarts, int base){
+      int[] ranges= whiteList == null ? null : whiteList.asciiRanges();
+      if (ranges != null && ranges.length > 2 * maxRanges){ return super.plainPrefix(buf, from, to, whiteList, lineStarts, base); }
+      IntConsumer sink= lineStarts == null ? null : lineStarts::add;
+      int i;
+      try{ i= (int)scan.invokeExact(buf, from, to, ranges, sink, base); }
+      catch(Throwable t){ throw Bug.of(t); }
+      return super.plainPrefix(buf, i, to, whiteList, lineStarts, base);
+    }
+  }
+}
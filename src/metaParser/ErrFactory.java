@@ -19,6 +19,13 @@ public interface ErrFactory<
   ///Unrecognized text (no token matched).
   E unrecognizedTextAt(Span at, String what, Tokenizer tokenizer);
 
+  ///A matcher read more chars than the match budget (see MetaTokenizer.matchBudget) while matching at span:
+  ///the text may well be valid. 'what' names the kind, or the scanner of a lexer mode.
+  ///By default reported through unrecognizedTextAt, with a message saying so.
+  default E matchBudgetExceededAt(Span at, String what, long budget, Tokenizer tokenizer){
+    return unrecognizedTextAt(at, "Matcher budget of "+budget+" chars exceeded for "+what+".", tokenizer);
+  }
+
   // == Tree-builder ================================================
   ///Could not legally close the group started by 'open' when encountering 'stop'.
   ///Implementations can distinguish the kind of stop by inspecting stop.kind():
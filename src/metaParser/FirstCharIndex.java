@@ -0,0 +1,20 @@
+package metaParser;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+//package private: built by MetaTokenizer for each lexer mode so that each position only tries the kinds that can start there
+final class FirstCharIndex<TK extends TokenKind>{
+  private final int[] all;
+  private final int[][] ascii;
+  ///subset: the indexes in kinds of the kinds to index, ascending.
+  FirstCharIndex(List<TK> kinds, int[] subset){
+    this.all= subset;
+    this.ascii= IntStream.range(0, 128)
+      .mapToObj(c->IntStream.of(subset)
+        .filter(k->kinds.get(k).matcher().canStartWith((char)c)).toArray())
+      .toArray(int[][]::new);
+  }
+  ///The indexes of the candidate kinds for c, in the original order so that priority tie-breaking is unchanged.
+  int[] candidates(char c){ return c < ascii.length ? ascii[c] : all; }
+}
@@ -0,0 +1,124 @@
+package metaParser;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+import tools.SourceOracle;
+
+///Runs the front end on all the files of a SourceOracle concurrently:
+///load, then tokenize, postTokenize and buildTokenTree in one pass (MetaTokenizer.run), then the user parse.
+///All the files are loaded first; then they are processed largest first, so that a big file does not end up as the tail of the batch.
+///The results are in the order of oracle.allFiles() whatever the scheduling, so the diagnostics of a batch are deterministic.
+///The map and spec are shared by all the files: their processors must be safe to call from many threads.
+public final class FrontEnd{
+  private FrontEnd(){}
+  ///What happened to one file: the value of the parse, or the diagnostic thrown while processing it.
+  public record Outcome<R, E extends RuntimeException>(SourceOracle.Ref ref, R value, E error){
+    public boolean ok(){ return error == null; }
+  }
+  ///As run(..,executor), on a fresh virtual thread per file.
+  public static <
+      T extends Token<T,TK>,
+      TK extends TokenKind,
+      E extends RuntimeException & HasFrames<E>,
+      Tokenizer extends MetaTokenizer<T,TK,E,Tokenizer,Parser,Err>,
+      Parser extends MetaParser<T,TK,E,Tokenizer,Parser,Err>,
+      Err extends ErrFactory<T,TK,E,Tokenizer,Parser,Err>,
+      R
+    > List<Outcome<R,E>> run(
+      SourceOracle oracle,
+      Supplier<Tokenizer> tokenizer,
+      TokenProcessor.Map<T,TK,E,Tokenizer,Parser,Err> map,
+      TokenTreeSpec<T,TK> spec,
+      BiFunction<Tokenizer,Tokens<T,TK>,R> parse){
+    try (var executor= Executors.newVirtualThreadPerTaskExecutor()){
+      return run(oracle, tokenizer, map, spec, parse, executor);
+    }
+  }
+  ///Processes every file of oracle on executor, for example a bounded ForkJoinPool.
+  ///Each file gets its own tokenizer from 'tokenizer', that must give one ready for .input:
+  ///with token kinds (or a LexerSpec), errFactory and any other setting, as cancellation.
+  ///A diagnostic (an exception implementing HasFrames) stops only its own file, and is recorded in its Outcome.
+  ///Any other exception, as Cancellation.Cancelled, is rethrown after all the files are done:
+  ///if many files fail that way, the first in oracle order wins.
+  public static <
+      T extends Token<T,TK>,
+      TK extends TokenKind,
+      E extends RuntimeException & HasFrames<E>,
+      Tokenizer extends MetaTokenizer<T,TK,E,Tokenizer,Parser,Err>,
+      Parser extends MetaParser<T,TK,E,Tokenizer,Parser,Err>,
+      Err extends ErrFactory<T,TK,E,Tokenizer,Parser,Err>,
+      R
+    > List<Outcome<R,E>> run(
+      SourceOracle oracle,
+      Supplier<Tokenizer> tokenizer,
+      TokenProcessor.Map<T,TK,E,Tokenizer,Parser,Err> map,
+      TokenTreeSpec<T,TK> spec,
+      BiFunction<Tokenizer,Tokens<T,TK>,R> parse,
+      ExecutorService executor){
+    var files= oracle.allFiles();
+    var texts= join(invokeAll(executor, files.stream().<Callable<String>>map(f->f::loadString).toList()));
+    map.prepare();//before the tasks are submitted: they only read the map
+    var futures= new ArrayList<Future<Outcome<R,E>>>(files.size());
+    for (int i= 0; i < files.size(); i++){ futures.add(null); }
+    IntStream.range(0, files.size()).boxed()
+      .sorted(Comparator.comparingInt((Integer i)->texts.get(i).length()).reversed())
+      .forEach(i->futures.set(i, executor.submit(()->
+        one(files.get(i), texts.get(i), tokenizer, map, spec, parse))));
+    return join(futures);
+  }
+  private static <
+      T extends Token<T,TK>,
+      TK extends TokenKind,
+      E extends RuntimeException & HasFrames<E>,
+      Tokenizer extends MetaTokenizer<T,TK,E,Tokenizer,Parser,Err>,
+      Parser extends MetaParser<T,TK,E,Tokenizer,Parser,Err>,
+      Err extends ErrFactory<T,TK,E,Tokenizer,Parser,Err>,
+      R
+    > Outcome<R,E> one(
+      SourceOracle.Ref ref, String text,
+      Supplier<Tokenizer> tokenizer,
+      TokenProcessor.Map<T,TK,E,Tokenizer,Parser,Err> map,
+      TokenTreeSpec<T,TK> spec,
+      BiFunction<Tokenizer,Tokens<T,TK>,R> parse){
+    try{
+      var tz= tokenizer.get().input(ref.fearURI(), text);
+      return new Outcome<>(ref, parse.apply(tz, tz.run(map, spec)), null);
+    }
+    catch(RuntimeException e){
+      if (!(e instanceof HasFrames<?>)){ throw e; }
+      @SuppressWarnings("unchecked") E diag= (E)e;
+      return new Outcome<>(ref, null, diag);
+    }
+  }
+  private static <V> List<Future<V>> invokeAll(ExecutorService executor, List<Callable<V>> tasks){
+    try{ return executor.invokeAll(tasks); }
+    catch(InterruptedException ie){ Thread.currentThread().interrupt(); throw new RuntimeException(ie); }
+  }
+  //waits for all, then gives the results in order or rethrows the first failure in order
+  private static <V> List<V> join(List<Future<V>> futures){
+    var res= new ArrayList<V>(futures.size());
+    RuntimeException failure= null;
+    for (var f: futures){
+      try{ res.add(f.get()); }
+      catch(InterruptedException ie){ Thread.currentThread().interrupt(); throw new RuntimeException(ie); }
+      catch(ExecutionException ee){
+        if (ee.getCause() instanceof Error err){ throw err; }
+        if (failure == null){
+          failure= ee.getCause() instanceof RuntimeException re ? re : new RuntimeException(ee.getCause());
+        }
+      }
+    }
+    if (failure != null){ throw failure; }
+    return res;
+  }
+}
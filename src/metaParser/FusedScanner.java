@@ -0,0 +1,144 @@
+package metaParser;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+
+import static offensiveUtils.Require.*;
+
+//package private: made by TokenScanner.fused.
+//The DFA is built eagerly by subset construction over the classes of chars that all the NFA ranges agree on.
+//Surrogates are left to the regex path, since java.util.regex matches code points.
+final class FusedScanner implements TokenScanner{
+  static final int maxStates= 10_000;
+  private final boolean[] handles;
+  final int classes;
+  final int[] asciiClass;
+  final int[] bounds;//bounds[c] is the first char of class c
+  final int[] next;//next[state*classes+class], -1 for the dead state
+  final int[] accept;//kind index, or -1
+  private FusedScanner(boolean[] handles, int[] bounds, int[] next, int[] accept){
+    this.handles= handles;
+    this.bounds= bounds;
+    this.classes= bounds.length;
+    this.next= next;
+    this.accept= accept;
+    this.asciiClass= new int[128];
+    for (char c= 0; c < 128; c++){ asciiClass[c]= search(bounds, c); }
+  }
+  @Override public boolean handles(int kind){ return kind < handles.length && handles[kind]; }
+  int classOf(char c){ return c < 128 ? asciiClass[c] : search(bounds, c); }
+  private static int search(int[] bounds, char c){
+    int i= Arrays.binarySearch(bounds, c);
+    return i >= 0 ? i : -i - 2;
+  }
+  int states(){ return accept.length; }
+  @Override public long scan(CharSequence input, int start){
+    int state= 0;
+    int bestEnd= -1;
+    int bestKind= -1;
+    int n= input.length();
+    for (int i= start; i < n; i++){
+      char c= input.charAt(i);
+      if (Character.isSurrogate(c)){ return undecided; }
+      state= next[state * classes + classOf(c)];
+      if (state < 0){ break; }
+      int k= accept[state];
+      if (k >= 0){ bestEnd= i + 1; bestKind= k; }
+    }
+    return bestKind < 0 ? noMatch : TokenScanner.result(bestKind, bestEnd);
+  }
+
+  static FusedScanner of(List<? extends TokenKind> kinds){
+    var nfa= new RegexNfa();
+    int start= nfa.newState();
+    var handles= new boolean[kinds.size()];
+    for (int k= 0; k < kinds.size(); k++){
+      try{ nfa.add(start, RegexNfa.of(kinds.get(k).matcher()), k); handles[k]= true; }
+      catch(RegexNfa.Unsupported _){/*stays on the TokenMatch path*/}
+    }
+    return new Builder(nfa, kinds).build(start, handles);
+  }
+  private static final class Builder{
+    final RegexNfa nfa;
+    final List<? extends TokenKind> kinds;
+    final int[] bounds;
+    Builder(RegexNfa nfa, List<? extends TokenKind> kinds){
+      this.nfa= nfa;
+      this.kinds= kinds;
+      var bs= new TreeSet<Integer>(List.of(0, RegexNfa.maxChar + 1));
+      for (var rs: nfa.ranges){
+        if (rs == null){ continue; }
+        for (int j= 0; j < rs.length; j += 2){ bs.add(rs[j]); bs.add(rs[j + 1] + 1); }
+      }
+      bs.remove(RegexNfa.maxChar + 1);
+      this.bounds= bs.stream().mapToInt(Integer::intValue).toArray();
+    }
+    BitSet closure(BitSet set){
+      var res= (BitSet)set.clone();
+      var todo= new ArrayDeque<Integer>();
+      set.stream().forEach(todo::push);
+      while (!todo.isEmpty()){
+        for (int e: nfa.eps.get(todo.pop())){ if (!res.get(e)){ res.set(e); todo.push(e); } }
+      }
+      return res;
+    }
+    static boolean contains(int[] rs, int c){
+      for (int j= 0; j < rs.length; j += 2){ if (rs[j] <= c && c <= rs[j + 1]){ return true; } }
+      return false;
+    }
+    int bestKind(BitSet set){
+      int best= -1;
+      for (int s= set.nextSetBit(0); s >= 0; s= set.nextSetBit(s + 1)){
+        int k= nfa.accept.get(s);
+        if (k < 0){ continue; }
+        if (best < 0 || better(k, best)){ best= k; }
+      }
+      return best;
+    }
+    boolean better(int k, int best){
+      int pk= kinds.get(k).priority(), pb= kinds.get(best).priority();
+      return pk < pb || (pk == pb && k < best);
+    }
+    FusedScanner build(int start, boolean[] handles){
+      var init= new BitSet();
+      init.set(start);
+      var ids= new HashMap<BitSet,Integer>();
+      var sets= new ArrayList<BitSet>();
+      var next= new ArrayList<int[]>();
+      var first= closure(init);
+      ids.put(first, 0);
+      sets.add(first);
+      for (int d= 0; d < sets.size(); d++){
+        var row= new int[bounds.length];
+        for (int c= 0; c < bounds.length; c++){
+          var to= new BitSet();
+          var from= sets.get(d);
+          for (int s= from.nextSetBit(0); s >= 0; s= from.nextSetBit(s + 1)){
+            var rs= nfa.ranges.get(s);
+            if (rs != null && contains(rs, bounds[c])){ to.set(nfa.target.get(s)); }
+          }
+          if (to.isEmpty()){ row[c]= -1; continue; }
+          var target= closure(to);
+          Integer id= ids.get(target);
+          if (id == null){
+            id= sets.size();
+            check(id < maxStates, "TokenScanner.fused: more than "+maxStates+" DFA states for kinds "+kinds);
+            ids.put(target, id);
+            sets.add(target);
+          }
+          row[c]= id;
+        }
+        next.add(row);
+      }
+      var flat= new int[next.size() * bounds.length];
+      for (int d= 0; d < next.size(); d++){ System.arraycopy(next.get(d), 0, flat, d * bounds.length, bounds.length); }
+      var accept= sets.stream().mapToInt(this::bestKind).toArray();
+      return new FusedScanner(handles, bounds, flat, accept);
+    }
+  }
+}
@@ -0,0 +1,23 @@
+package metaParser;
+
+import java.util.Arrays;
+
+//package private: growable int array, to record per token data without boxing.
+final class Ints{
+  private int[] data;
+  private int size= 0;
+  Ints(int capacity){ data= new int[Math.max(capacity, 8)]; }
+  int size(){ return size; }
+  void add(int v){
+    if (size == data.length){ data= Arrays.copyOf(data, size * 2); }
+    data[size++]= v;
+  }
+  void addAll(int[] vs, int from, int to){
+    int n= to - from;
+    if (size + n > data.length){ data= Arrays.copyOf(data, Math.max(size * 2, size + n)); }
+    System.arraycopy(vs, from, data, size, n);
+    size += n;
+  }
+  void addAll(Ints vs){ addAll(vs.data, 0, vs.size); }
+  int[] toArray(){ return Arrays.copyOf(data, size); }
+}
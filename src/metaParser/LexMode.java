@@ -0,0 +1,44 @@
+package metaParser;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+//package private: a named subset of the token kinds of a MetaTokenizer, with its own first char index and scanner.
+//Kinds are stored as their indexes in the tokenKinds list, ascending, so that tie-breaking follows the tokenKinds order.
+//Immutable, so that a LexerSpec can share it across tokenizers.
+final class LexMode<TK extends TokenKind>{
+  final String name;
+  final int[] kinds;
+  final FirstCharIndex<TK> index;
+  private final TokenScanner scanner;
+  private final boolean[] scanned;//by kind index: handled by the scanner
+  LexMode(String name, List<TK> all, int[] kinds){
+    assert IntStream.range(1, kinds.length).allMatch(i->kinds[i - 1] < kinds[i]);
+    this.name= name;
+    this.kinds= kinds;
+    this.index= new FirstCharIndex<>(all, kinds);
+    this.scanner= null;
+    this.scanned= new boolean[0];
+  }
+  private LexMode(LexMode<TK> m, TokenScanner s){
+    this.name= m.name;
+    this.kinds= m.kinds;
+    this.index= m.index;
+    this.scanner= s;
+    this.scanned= new boolean[kinds[kinds.length - 1] + 1];
+    for (int i= 0; i < kinds.length; i++){ scanned[kinds[i]]= s.handles(i); }
+  }
+  List<TK> kinds(List<TK> all){ return IntStream.of(kinds).mapToObj(all::get).toList(); }
+  TokenScanner scanner(){ return scanner; }
+  ///The same mode using scanner s, that works on kinds(all): its results are mapped back to tokenKinds indexes.
+  LexMode<TK> withScanner(TokenScanner s){ return new LexMode<>(this, s); }
+  boolean scanned(int kind){ return kind < scanned.length && scanned[kind]; }
+  long scan(CharSequence input, int pos){
+    if (scanner == null){ return TokenScanner.undecided; }
+    long res= scanner.scan(input, pos);
+    if (res < 0){ return res; }
+    return TokenScanner.result(kinds[TokenScanner.kind(res)], TokenScanner.end(res));
+  }
+  @Override public String toString(){ return name+Arrays.toString(kinds); }
+}
@@ -0,0 +1,98 @@
+package metaParser;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.IntStream;
+
+import static offensiveUtils.Require.*;
+
+///Per token kind lexer counters, filled by a MetaTokenizer while .profile(this) is set:
+///attempts and successful matches of each matcher, wins (the tokens actually lexed),
+///matched chars and nanoseconds spent in the matcher.
+///The lexer runs as without the profile, scanners included: the kinds a scanner decides show wins but no attempts,
+///and the time spent in the scanners is counted as a whole, in the scanner counters.
+///Counters are atomic, so the chunks of a parallel tokenize can share a profile; they add up until reset().
+///Chunks that a parallel tokenize lexes again are counted twice, as the work was done twice.
+public final class LexProfile<TK extends TokenKind>{
+  private static final int attempts= 0, matches= 1, wins= 2, chars= 3, nanos= 4, fields= 5;
+  private List<TK> kinds= List.of();
+  private AtomicLongArray counts= new AtomicLongArray(0);
+  private final AtomicLongArray scanner= new AtomicLongArray(fields);//only attempts, matches, chars and nanos
+  //package private: called by MetaTokenizer.profile
+  void bind(List<TK> kinds){
+    if (this.kinds.equals(kinds)){ return; }
+    check(this.kinds.isEmpty(), "A LexProfile can only profile one list of tokenKinds: use a new LexProfile for "+kinds);
+    this.kinds= List.copyOf(kinds);
+    this.counts= new AtomicLongArray(kinds.size() * fields);
+  }
+  ///The cursor of kind k, recording into this profile.
+  TokenMatch.Cursor cursor(int k, TokenMatch.Cursor c){
+    return (input, start)->{
+      long t0= System.nanoTime();
+      int end= c.end(input, start);
+      counts.addAndGet(k * fields + nanos, System.nanoTime() - t0);
+      counts.incrementAndGet(k * fields + attempts);
+      if (end >= 0){
+        counts.incrementAndGet(k * fields + matches);
+        counts.addAndGet(k * fields + chars, end - start);
+      }
+      return end;
+    };
+  }
+  ///The scan of mode, recording into the scanner counters; undecided without calling anything if mode has no scanner.
+  long scan(LexMode<TK> mode, CharSequence input, int start){
+    if (mode.scanner() == null){ return TokenScanner.undecided; }
+    long t0= System.nanoTime();
+    long res= TokenScanner.undecided;
+    try{ res= mode.scan(input, start); }
+    finally{
+      scanner.addAndGet(nanos, System.nanoTime() - t0);
+      scanner.incrementAndGet(attempts);
+      if (res >= 0){
+        scanner.incrementAndGet(matches);
+        scanner.addAndGet(chars, TokenScanner.end(res) - start);
+      }
+    }
+    return res;
+  }
+  void won(int k){ counts.incrementAndGet(k * fields + wins); }
+
+  public List<TK> kinds(){ return kinds; }
+  public long attempts(TK kind){ return get(kind, attempts); }
+  public long matches(TK kind){ return get(kind, matches); }
+  public long wins(TK kind){ return get(kind, wins); }
+  public long chars(TK kind){ return get(kind, chars); }
+  public long nanos(TK kind){ return get(kind, nanos); }
+  ///Calls to the scanners, how many decided a token, the chars of those tokens and the time spent, for all the modes.
+  public long scannerAttempts(){ return scanner.get(attempts); }
+  public long scannerMatches(){ return scanner.get(matches); }
+  public long scannerChars(){ return scanner.get(chars); }
+  public long scannerNanos(){ return scanner.get(nanos); }
+  private long get(TK kind, int field){
+    int k= kinds.indexOf(kind);
+    return k < 0 ? 0 : counts.get(k * fields + field);
+  }
+  public LexProfile<TK> reset(){
+    for (int i= 0; i < counts.length(); i++){ counts.set(i, 0); }
+    for (int i= 0; i < fields; i++){ scanner.set(i, 0); }
+    return this;
+  }
+  ///One line per kind, slowest first, then one for the scanners if any ran.
+  ///Kinds decided by a scanner have their time in the scanners line.
+  public String report(){
+    var res= new StringBuilder(String.format(Locale.ROOT, "%-20s %12s %12s %12s %12s %10s%n", "kind", "attempts", "matches", "wins", "chars", "ms"));
+    IntStream.range(0, kinds.size()).boxed()
+      .sorted(Comparator.comparingLong((Integer k)->counts.get(k * fields + nanos)).reversed())
+      .forEach(k->res.append(String.format(Locale.ROOT, "%-20s %12d %12d %12d %12d %10.3f%n",
+        kinds.get(k), counts.get(k * fields + attempts), counts.get(k * fields + matches),
+        counts.get(k * fields + wins), counts.get(k * fields + chars), counts.get(k * fields + nanos) / 1e6)));
+    if (scanner.get(attempts) > 0){
+      res.append(String.format(Locale.ROOT, "%-20s %12d %12d %12s %12d %10.3f%n",
+        "(scanners)", scanner.get(attempts), scanner.get(matches), "-", scanner.get(chars), scanner.get(nanos) / 1e6));
+    }
+    return res.toString();
+  }
+  @Override public String toString(){ return report(); }
+}
@@ -0,0 +1,39 @@
+package metaParser;
+
+import java.util.List;
+import java.util.Set;
+
+///The compiled configuration of a MetaTokenizer: kinds, modes with their first char indexes and scanners,
+///mode transitions, whiteList table, trivia kinds and token tree spec.
+///Immutable, so one spec made by MetaTokenizer.lexerSpec can start many tokenizers, on many threads,
+///through MetaTokenizer.spec(lexerSpec) without deriving anything again.
+public final class LexerSpec<T extends Token<T,TK>, TK extends TokenKind>{
+  final List<TK> kinds;
+  final TK sof;
+  final TK eof;
+  final List<LexMode<TK>> modes;
+  private final int[] pushTo;
+  private final boolean[] pops;
+  final WhiteList whiteList;//may be null
+  final Set<TK> trivia;
+  private final TokenTreeSpec<T,TK> tree;//may be null
+  //package private: made by MetaTokenizer.lexerSpec
+  LexerSpec(List<TK> kinds, TK sof, TK eof, List<LexMode<TK>> modes, int[] pushTo, boolean[] pops, WhiteList whiteList, Set<TK> trivia, TokenTreeSpec<T,TK> tree){
+    this.kinds= List.copyOf(kinds);
+    this.sof= sof;
+    this.eof= eof;
+    this.modes= List.copyOf(modes);
+    this.pushTo= pushTo.clone();
+    this.pops= pops.clone();
+    this.whiteList= whiteList;
+    this.trivia= Set.copyOf(trivia);
+    this.tree= tree == null ? null : tree.copy();
+  }
+  public List<TK> kinds(){ return kinds; }
+  public TK sof(){ return sof; }
+  public TK eof(){ return eof; }
+  //the tables are copied out since tokenizers may still change their own (pushOn, popOn)
+  int[] pushTo(){ return pushTo.clone(); }
+  boolean[] pops(){ return pops.clone(); }
+  TokenTreeSpec<T,TK> treeSpec(){ return tree; }
+}
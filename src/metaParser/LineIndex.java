@@ -0,0 +1,52 @@
+package metaParser;
+
+import java.util.Arrays;
+
+//package private: where each line of a normalized input starts, recorded by MetaTokenizer while normalizing.
+//Lines are 0 based here; columns count code points from the line start, as walking the token contents does.
+final class LineIndex{
+  private final int[] starts;
+  private final int lines;
+  private final boolean pairs;//some surrogate pair: columns can not be plain offset differences
+  LineIndex(Ints starts, boolean pairs){ this(starts.toArray(), starts.size(), pairs); }
+  private LineIndex(int[] starts, int lines, boolean pairs){
+    assert lines > 0 && starts[0] == 0;
+    this.starts= starts;
+    this.lines= lines;
+    this.pairs= pairs;
+  }
+  int lines(){ return lines; }
+  int start(int line){ return starts[line]; }
+  ///The line of offset, by binary search.
+  int lineOf(int offset){
+    int i= Arrays.binarySearch(starts, 0, lines, offset);
+    return i >= 0 ? i : -i - 2;
+  }
+  ///From 'line', the line of offset, scanning forward: for offsets visited in order.
+  int lineFrom(int line, int offset){
+    while (line + 1 < lines && starts[line + 1] <= offset){ line++; }
+    return line;
+  }
+  ///The code points of src[from,to): callers count a line piece by piece, as the lexer advances,
+  ///so that lines with surrogate pairs are not counted again from their start for every token.
+  int codePoints(CharSequence src, int from, int to){
+    return pairs ? Character.codePointCount(src, from, to) : to - from;
+  }
+  ///The index after replacing 'removed' chars at 'offset' with 'inserted':
+  ///lines before the edit are kept, lines after it are shifted.
+  LineIndex edit(int offset, int removed, CharSequence inserted){
+    int delta= inserted.length() - removed;
+    int keep= lineOf(offset) + 1;
+    int after= lineOf(offset + removed) + 1;
+    var res= new Ints(lines + inserted.length() / 8);
+    res.addAll(starts, 0, keep);
+    boolean newPairs= false;
+    for (int i= 0; i < inserted.length(); i++){
+      char c= inserted.charAt(i);
+      if (c == '\n'){ res.add(offset + i + 1); }
+      newPairs |= Character.isSurrogate(c);
+    }
+    for (int l= after; l < lines; l++){ res.add(starts[l] + delta); }
+    return new LineIndex(res.toArray(), res.size(), pairs || newPairs);
+  }
+}
@@ -0,0 +1,89 @@
+package metaParser;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import tools.Fs;
+
+//package private: the chars of an ASCII file, read straight from a read only mapping of the file.
+//Only the slices asked for, that is the token contents, are decoded to Strings.
+//The mapping lives in its own Arena: close() copies the file to a String and unmaps it right away,
+//instead of leaving the file mapped (and locked on Windows) until the garbage collector finds the buffer.
+//A file truncated while mapped fails with an UncheckedIOException (see truncated).
+final class MappedAscii implements CharSequence{
+  private final Arena arena;
+  private final MemorySegment bytes;
+  private final int from;
+  private final int length;
+  private MappedAscii(Arena arena, MemorySegment bytes, int from){
+    this.arena= arena;
+    this.bytes= bytes;
+    this.from= from;
+    this.length= (int)bytes.byteSize() - from;
+  }
+  ///The mapped file, without its UTF-8 BOM, or null if it needs decoding or normalization:
+  ///any byte over 127, or any '\r'. The caller owns the mapping, and must close it.
+  static MappedAscii of(Path path){
+    return Fs.of(()->{
+      try(var ch= FileChannel.open(path, StandardOpenOption.READ)){
+        long size= ch.size();
+        if (size > Integer.MAX_VALUE){ return null; }
+        var arena= Arena.ofShared();
+        MappedAscii res= null;
+        try{
+          var bytes= ch.map(FileChannel.MapMode.READ_ONLY, 0, size, arena);
+          boolean bom= size >= 3 && get(bytes, 0) == (byte)0xEF && get(bytes, 1) == (byte)0xBB && get(bytes, 2) == (byte)0xBF;
+          int from= bom ? 3 : 0;
+          if (plainAscii(bytes, from)){ res= new MappedAscii(arena, bytes, from); }
+          return res;
+        }
+        finally{ if (res == null){ arena.close(); } }
+      }
+    });
+  }
+  private static byte get(MemorySegment bytes, long i){ return bytes.get(ValueLayout.JAVA_BYTE, i); }
+  private static final long highBits= 0x8080808080808080L;
+  private static final long ones= 0x0101010101010101L;
+  private static final long crs= ones * '\r';
+  ///Eight bytes at a time: no high bit set, and no byte equal to '\r'.
+  private static boolean plainAscii(MemorySegment bytes, int from){
+    long n= bytes.byteSize();
+    long i= from;
+    for (; i + 8 <= n; i += 8){
+      long w= bytes.get(ValueLayout.JAVA_LONG_UNALIGNED, i);
+      long cr= w ^ crs;
+      if ((w & highBits) != 0 || ((cr - ones) & ~cr & highBits) != 0){ return false; }
+    }
+    for (; i < n; i++){
+      byte b= get(bytes, i);
+      if (b < 0 || b == '\r'){ return false; }
+    }
+    return true;
+  }
+  @Override public int length(){ return length; }
+  @Override public char charAt(int index){ return (char)get(bytes, from + index); }
+  @Override public String subSequence(int start, int end){
+    var res= new byte[end - start];
+    MemorySegment.copy(bytes, ValueLayout.JAVA_BYTE, from + start, res, 0, res.length);
+    return new String(res, StandardCharsets.ISO_8859_1);
+  }
+  @Override public String toString(){ return subSequence(0, length); }
+  ///The whole file as a String, then unmaps it: this object can not be read any more.
+  String close(){
+    try{ return toString(); }
+    catch(InternalError e){ throw truncated(e); }
+    finally{ arena.close(); }
+  }
+  ///The JVM reports reading a page that is gone from a mapped file as an InternalError,
+  ///not always from the read itself: so the callers catch it around whole passes over the mapping.
+  static UncheckedIOException truncated(InternalError e){
+    return new UncheckedIOException(new IOException("file truncated while mapped for lexing", e));
+  }
+}
@@ -2,6 +2,7 @@ package metaParser;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
@@ -20,11 +21,26 @@ public abstract class MetaParser<
   private final List<T> ts;
   private int index= 0;
   private int limit;
+  private Cancellation cancellation= Cancellation.none;
   public abstract Parser self();
+  ///Tokens stepped over when finding the first and last leaf of a span, as whitespace and comments.
+  ///With MetaTokenizer.trivia they are routed aside and never reach the parser, so skip can return false.
   public abstract boolean skip(T token);
   public abstract Parser make(Span span,List<T> tokens);
   public abstract Err errFactory();
   public MetaParser(Span span, List<T> ts){ this.span= span; this.ts= ts; this.limit= ts.size(); }
+  ///Checked at each nested parser, made by parseGroup, splitBy, parseFront and the like, that share it.
+  public Parser cancellation(Cancellation cancellation){
+    this.cancellation= Objects.requireNonNull(cancellation);
+    return self();
+  }
+  public Cancellation cancellation(){ return cancellation; }
+  private Parser nested(Span span, List<T> tokens){
+    cancellation.check();
+    Parser res= make(span, tokens);
+    ((MetaParser<T,TK,E,Tokenizer,Parser,Err>)res).cancellation= cancellation;
+    return res;
+  }
   public static <R> R computeInFrame(String frameName, Span s, Supplier<R> r){
     try{ return r.get(); }
     catch(RuntimeException|Error t){ 
@@ -143,7 +159,7 @@ public abstract class MetaParser<
   public <R> R parseGroup(String frameName, Rule<T,TK,E,Tokenizer,Parser,Err,R> r){
     var tsIn= ts.get(index).tokens();
     if(tsIn.isEmpty()){ throw new IllegalStateException("Expected a grouped token (with children), got "+PrettyToken.show(ts.get(index))+"."); }
-    var nested= make(spanAround(index,index),tsIn);
+    var nested= nested(spanAround(index,index),tsIn);
     var res= nested.parseAll(frameName,r);
     index++;
     return res;
@@ -185,7 +201,7 @@ public abstract class MetaParser<
     var tsIn= ts.subList(index, limit);
     var s= spanAround(index,limit-1);
     if(tsIn.isEmpty()){ throw new IllegalStateException("Expected a grouped token (with children), got "+PrettyToken.show(ts.get(index))+"."); }
-    var nested= make(s,tsIn);
+    var nested= nested(s,tsIn);
     var res= nested.parseAll(frameName, r);
     index = limit;
     return res;
@@ -219,7 +235,7 @@ public abstract class MetaParser<
   private final List<Parser> _splitBy(String frameName, NextCut<T,TK,E,Tokenizer,Parser,Err> probe){
     var slice= ts.subList(index, limit);
     var s= spanAround(index,Math.max(index,limit-1));
-    Parser splitterParser= make(s,slice);
+    Parser splitterParser= nested(s,slice);
     var parts= new ArrayList<Parser>();
     while (!splitterParser.end()){
       int start= splitterParser.index();
@@ -228,7 +244,7 @@ public abstract class MetaParser<
       ((MetaParser<T,TK,E,Tokenizer,Parser,Err>)splitterParser).checkProbeErrorFront(false,start, end, drop, frameName);
       var tsi= List.copyOf(slice.subList(start, end-drop));
       var si= splitterParser.spanAround(start,(end-1)-drop);
-      parts.add(make(si,tsi));
+      parts.add(nested(si,tsi));
     }
     return parts;
   }
@@ -262,14 +278,14 @@ public abstract class MetaParser<
   public final <R> Optional<R> parseFront(String frameName, boolean emptyAllowed, NextCut<T,TK,E,Tokenizer,Parser,Err> probe, Rule<T,TK,E,Tokenizer,Parser,Err,R> first){
     var slice= ts.subList(index, limit);
     var s= spanAround(index, limit-1);
-    Parser splitterParser= make(s,slice);
+    Parser splitterParser= nested(s,slice);
     int start= splitterParser.index();
     int drop= probe.cutAt(splitterParser);
     int end= splitterParser.index();
     ((MetaParser<T,TK,E,Tokenizer,Parser,Err>)splitterParser).checkProbeErrorFront(emptyAllowed,start, end, drop, frameName);
     if(splitterParser.end()){ return Optional.empty(); }//split not found
     var firstS= splitterParser.spanAround(0,(end-1)-drop);
-    Parser firstParser= make(firstS,List.copyOf(slice.subList(0, end-drop)));
+    Parser firstParser= nested(firstS,List.copyOf(slice.subList(0, end-drop)));
     var res= firstParser.parseAll(frameName, first);
     this.index+= end;//mark the tokens as eaten
     return Optional.of(res);
@@ -284,7 +300,7 @@ public abstract class MetaParser<
   public final <R> Optional<R> parseBack(String frameName, boolean emptyAllowed, NextCut<T,TK,E,Tokenizer,Parser,Err> probe, Rule<T,TK,E,Tokenizer,Parser,Err,R> first){
     var slice= ts.subList(index, limit);
     var s= spanAround(index, limit-1);
-    Parser splitterParser= make(s,slice);
+    Parser splitterParser= nested(s,slice);
     int start= splitterParser.limit();
     int drop= probe.cutAt(splitterParser);
     int end= splitterParser.limit();
@@ -292,7 +308,7 @@ public abstract class MetaParser<
     //TODO: test if the errors make sense by just swapping start/end    
     if(splitterParser.end()){ return Optional.empty(); }//split not found
     var lastS= splitterParser.spanAround(end + drop, limit - 1);
-    Parser firstParser= make(lastS,List.copyOf(slice.subList(end + drop, limit)));
+    Parser firstParser= nested(lastS,List.copyOf(slice.subList(end + drop, limit)));
     var res= firstParser.parseAll(frameName, first);
     this.limit += end;//mark the tokens as eaten
     return Optional.of(res);
@@ -305,7 +321,7 @@ public abstract class MetaParser<
   public void guard(Consumer<Parser> check){
     var slice= ts.subList(index, limit);
     var s= spanAround(index, limit-1);
-    Parser shadow= make(s, slice);
+    Parser shadow= nested(s, slice);
     check.accept(shadow);
   }
   private void checkProbeErrorFront(boolean emptyAllowed, int start, int end, int drop, String frameName){
@@ -1,18 +1,30 @@
 package metaParser;
 
+import java.io.Reader;
 import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.ListIterator;
+import java.util.NoSuchElementException;
 import java.util.Objects;
-import java.util.Optional;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
 import java.util.function.Supplier;
 import java.util.stream.IntStream;
 
 import tools.Fs;
+import utils.Bug;
 
 import static offensiveUtils.Require.*;
 
@@ -25,22 +37,47 @@ public abstract class MetaTokenizer<
     Err extends ErrFactory<T,TK,E,Tokenizer,Parser,Err>
   >{
   private List<TK> kinds;
+  private List<LexMode<TK>> modes;
+  private int[] pushTo;//by kind index: the mode pushed when the kind matches, or -1
+  private boolean[] pops;//by kind index: the kind pops the current mode when it matches
+  private Lexer lexer;
   private TK sof;
   private TK eof;
   private URI fileName;
-  private String input;
-  private int pos= 0;
+  private CharSequence input;
+  private LineIndex lines;
   private int line= 1;
   private int col= 1;
   private List<T> postTokens;
+  private List<T> hiddenTokens;
+  private Set<TK> trivia= Set.of();
   private List<T> allTokens;
+  private int[] starts;//by allTokens index: input offset of the token
+  private int[] modesAt;//by allTokens index: modeAt() before the token was lexed
+  private int[] reaches;//by allTokens index: Lexer.reached() after the token was lexed, see reaches()
   private List<T> tree;
   private Span base;
   private Err errFactory;
+  private WhiteList whiteList;
+  private boolean compact= false;
+  private TokenTreeSpec<T,TK> treeSpec;
+  private LexProfile<TK> profile;
+  private long matchBudget= 0;
+  private long mapFilesFrom= Long.MAX_VALUE;//mapFiles: never by default
+  private List<TK> riskyKinds= List.of();
+  private TokenInterner interner;
+  private Cancellation cancellation= Cancellation.none;
   private boolean frozen= false;
   
+  ///The mode tokenization starts in: by default it tries all the tokenKinds.
+  public static final String initialMode= "initial";
   public abstract Tokenizer self();
   public abstract T make(TK kind, String text, int line, int col, List<T> tokens);
+  ///Used by the lexer, that knows where the content ends: override to store endLine/endCol in T,
+  ///so that Token.endLine/endColumn and the spans need not walk the content.
+  public T make(TK kind, String text, int line, int col, int endLine, int endCol, List<T> tokens){
+    return make(kind, text, line, col, tokens);
+  }
   
   private <R> R withFrozen(Supplier<R> body){
     boolean prev = frozen;
@@ -48,34 +85,228 @@ public abstract class MetaTokenizer<
     try { return body.get(); }
     finally { frozen = prev; }
   }
-  private final RuntimeException error(){ 
-    return withFrozen(()->errFactory().unrecognizedTextAt(new Span(fileName,line,col,line,col),"",self()));
+  private final RuntimeException error(Lexer at){ 
+    var span= new Span(fileName,at.line,at.col,at.line,at.col);
+    if (at.overBudget != null){ return withFrozen(()->errFactory().matchBudgetExceededAt(span,at.overBudget,matchBudget,self())); }
+    return withFrozen(()->errFactory().unrecognizedTextAt(span,"",self()));
   }
-  private void advanceSingle(int cp){
-    if (cp == '\n'){ line++; col = 1; } else { col++; }
+  ///Lexing position and mode stack over a source string.
+  ///Cursors may keep per position state, so each Lexer has its own: tokenize uses one, parallel chunks one each.
+  private final class Lexer{
+    private final LexProfile<TK> profile= MetaTokenizer.this.profile;
+    private final TokenMatch.Cursor[] cursors= IntStream.range(0, kinds.size())
+      .mapToObj(k->profile == null ? kinds.get(k).matcher().cursor() : profile.cursor(k, kinds.get(k).matcher().cursor()))
+      .toArray(TokenMatch.Cursor[]::new);
+    private int[] modeStack= new int[8];
+    private int modeDepth= 0;
+    private CharSequence src;
+    private LineIndex index;//null while streaming: line and col are then counted char by char
+    private int lineIx;
+    private int counted;//the code points of line lineIx up to this offset are in lineCodePoints
+    private int lineCodePoints;
+    private BudgetedChars budgeted;//only with a matchBudget
+    private boolean tracked;//see tracked()
+    private ReachChars reach;//only while tracked
+    private String overBudget;//what ran out of budget in the last findNext, if anything
+    private int pos;
+    private int line;
+    private int col;
+    ///Positioned on the tokenized input: line and col come from its LineIndex.
+    Lexer at(CharSequence src, int pos, int[] stack){
+      at(src, pos, 0, 0, stack);
+      index= lines;
+      lineIx= index.lineOf(pos);
+      counted= index.start(lineIx);
+      lineCodePoints= 0;
+      sync();
+      return this;
+    }
+    Lexer at(CharSequence src, int pos, int line, int col, int[] stack){
+      this.src= src;
+      this.index= null;
+      this.tracked= false;
+      this.pos= pos;
+      this.line= line;
+      this.col= col;
+      modeDepth= stack.length - 1;
+      if (modeStack.length < stack.length){ modeStack= Arrays.copyOf(modeStack, stack.length * 2); }
+      System.arraycopy(stack, 0, modeStack, 0, stack.length);
+      return this;
+    }
+    ///Until the next .at, each findNext records how far it read: see reached().
+    Lexer tracked(){ tracked= true; return this; }
+    ///After a tracked findNext: one past the furthest char read, or Integer.MAX_VALUE if it read the last char of src.
+    int reached(){ return reach.reach(); }
+    int modeAt(){ return modeDepth << 16 | modeStack[modeDepth]; }
+    boolean sameModeStack(int[] stack){ return Arrays.equals(stack, 0, stack.length, modeStack, 0, modeDepth + 1); }
+    int[] modeStack(){ return Arrays.copyOf(modeStack, modeDepth + 1); }
+    ///The next token, or null if no kind matches at pos.
+    T lexOne(){
+      long best= findNext();
+      return best < 0 ? null : take(best);
+    }
+    ///Makes the token for a findNext result and moves past it.
+    T take(long best){
+      if (profile != null){ profile.won(TokenScanner.kind(best)); }
+      transition(TokenScanner.kind(best));
+      var kind= kinds.get(TokenScanner.kind(best));
+      var text= interner == null
+        ? src.subSequence(pos, TokenScanner.end(best)).toString()
+        : interner.intern(src, pos, TokenScanner.end(best));
+      assert !text.isEmpty() : "lexer produced a zero-length token for " + kind;
+      int startLine= line;
+      int startCol= col;
+      advanceTo(TokenScanner.end(best));
+      return make(kind, text, startLine, startCol, line, col, List.of());
+    }
+    ///Moves past a findNext result without making the token.
+    void skip(long best){
+      assert TokenScanner.end(best) > pos : "lexer produced a zero-length token for " + kinds.get(TokenScanner.kind(best));
+      if (profile != null){ profile.won(TokenScanner.kind(best)); }
+      transition(TokenScanner.kind(best));
+      advanceTo(TokenScanner.end(best));
+    }
+    ///Counts code points of the token, as in content().codePoints().
+    private void advanceTo(int end){
+      if (index != null){ pos= end; sync(); return; }
+      int from= pos;
+      for (; pos < end; pos++){
+        char c= src.charAt(pos);
+        if (c == '\n'){ line++; col = 1; continue; }
+        boolean pairEnd= Character.isLowSurrogate(c) && pos > from && Character.isHighSurrogate(src.charAt(pos - 1));
+        if (!pairEnd){ col++; }
+      }
+    }
+    private void sync(){
+      int l= index.lineFrom(lineIx, pos);
+      if (l != lineIx){ lineIx= l; counted= index.start(l); lineCodePoints= 0; }
+      lineCodePoints += index.codePoints(src, counted, pos);
+      counted= pos;
+      line= MetaTokenizer.this.line + lineIx;
+      col= (lineIx == 0 ? MetaTokenizer.this.col : 1) + lineCodePoints;
+    }
+    private int polls;
+    ///Returns TokenScanner.result(kind,end) for the winning kind, or TokenScanner.noMatch.
+    ///Only the winner content is materialized, by the caller.
+    private long findNext(){
+      cancellation.poll(++polls);
+      CharSequence in= src;
+      if (tracked){
+        if (reach == null || reach.src != src){ reach= new ReachChars(src); }
+        in= reach.from(pos);
+      }
+      if (matchBudget > 0){ return findNextBudgeted(in); }
+      var mode= modes.get(modeStack[modeDepth]);
+      long best= profile == null ? mode.scan(in, pos) : profile.scan(mode, in, pos);
+      boolean decided= best != TokenScanner.undecided;
+      if (!decided){ best= TokenScanner.noMatch; }
+      for (int k: mode.index.candidates(in.charAt(pos))){
+        if (decided && mode.scanned(k)){ continue; }
+        int end= cursors[k].end(in, pos);
+        if (end >= 0 && (best < 0 || better(k, end, best))){ best= TokenScanner.result(k, end); }
+      }
+      return best;
+    }
+    ///As findNext, with every match attempt reading 'in' through a BudgetedChars.
+    ///Running out of budget counts as no match, so the caller reports unrecognized text there.
+    private long findNextBudgeted(CharSequence in){
+      overBudget= null;
+      if (budgeted == null || budgeted.src != in){ budgeted= new BudgetedChars(in, matchBudget); }
+      var mode= modes.get(modeStack[modeDepth]);
+      long best;
+      try{ best= profile == null ? mode.scan(budgeted.reset(), pos) : profile.scan(mode, budgeted.reset(), pos); }
+      catch(BudgetedChars.Exceeded e){ overBudget= "the scanner of mode "+mode.name; return TokenScanner.noMatch; }
+      boolean decided= best != TokenScanner.undecided;
+      if (!decided){ best= TokenScanner.noMatch; }
+      for (int k: mode.index.candidates(src.charAt(pos))){
+        if (decided && mode.scanned(k)){ continue; }
+        int end;
+        try{ end= cursors[k].end(budgeted.reset(), pos); }
+        catch(BudgetedChars.Exceeded e){ overBudget= "kind "+kinds.get(k); return TokenScanner.noMatch; }
+        if (end >= 0 && (best < 0 || better(k, end, best))){ best= TokenScanner.result(k, end); }
+      }
+      return best;
+    }
+    private void transition(int kind){
+      if (pops[kind] && modeDepth > 0){ modeDepth--; }
+      int to= pushTo[kind];
+      if (to < 0){ return; }
+      if (++modeDepth == modeStack.length){ modeStack= Arrays.copyOf(modeStack, modeDepth * 2); }
+      modeStack[modeDepth]= to;
+    }
   }
-  private void advance(String matched){
-    matched.codePoints().forEach(this::advanceSingle);
-    pos += matched.length();
+  ///Longest match wins, then lower priority, then the kind listed first.
+  private boolean better(int k, int end, long best){
+    int byLength= Integer.compare(end, TokenScanner.end(best));
+    if (byLength != 0){ return byLength > 0; }
+    int bestKind= TokenScanner.kind(best);
+    int byPriority= Integer.compare(kinds.get(k).priority(), kinds.get(bestKind).priority());
+    if (byPriority != 0){ return byPriority < 0; }
+    return k < bestKind;
   }
-  private Optional<T> current(TK kind){
-    return kind
-      .matcher().apply(input, pos)
-      .map(text -> make(kind, text, line, col,List.of()));
+  private String normalizeSource(String s){ return prepare(s, null, false).toString(); }
+  ///Drops a leading BOM and turns CRLF, CR, LS, PS and NEL into '\n', copying only if something changes.
+  ///In the same pass, checks every code point of the result against whiteList, if not null,
+  ///and, if 'index', records the line starts of the result in 'lines'.
+  private CharSequence prepare(CharSequence s, WhiteList whiteList, boolean index){
+    int n= s.length();
+    int i= n > 0 && s.charAt(0) == '\uFEFF' ? 1 : 0;
+    StringBuilder out= i == 0 ? null : new StringBuilder(n);
+    var lineStarts= new Ints(index ? n / 32 : 1);
+    lineStarts.add(0);
+    boolean pairs= false;
+    var buf= new char[Math.min(n, 1 << 13)];
+    while (i < n){
+      int len= Math.min(n - i, buf.length);
+      getChars(s, i, i + len, buf);
+      int start= i;//buf[p] is s.charAt(start + p)
+      int p= 0;
+      while (p < len){
+        //plain ASCII runs a chunk at a time; the other chars one by one below, in the same buf
+        int plain= CharScan.instance.plainPrefix(buf, p, len, whiteList, index ? lineStarts : null, out == null ? start : out.length() - p);
+        if (out != null){ out.append(buf, p, plain - p); }
+        p= plain;
+        if (p == len){ break; }
+        i= start + p;
+        char c= buf[p];
+        int cp= c;
+        int width= 1;
+        if (c == '\r'){ cp= '\n'; if (i + 1 < n && s.charAt(i + 1) == '\n'){ width= 2; } }
+        else if (c == '\u2028' || c == '\u2029' || c == '\u0085'){ cp= '\n'; }
+        else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))){
+          cp= Character.toCodePoint(c, s.charAt(i + 1));
+          width= 2;
+          pairs= true;
+        }
+        boolean changed= cp == '\n' && c != '\n';
+        if (changed && out == null){ out= new StringBuilder(n).append(s, 0, i); }
+        if (whiteList != null && !whiteList.allows(cp)){ throw illegalChar(cp, out == null ? s : out, out == null ? i : out.length()); }
+        if (out != null){ if (changed){ out.append('\n'); } else { out.append(s, i, i + width); } }
+        if (index && cp == '\n'){ lineStarts.add(out == null ? i + 1 : out.length()); }
+        p += width;//may pass len by one, for a pair or CRLF split by the end of buf
+      }
+      i= start + p;
+    }
+    if (index){ lines= new LineIndex(lineStarts, pairs); }
+    return out == null ? s : out.toString();
   }
-  private Optional<T> findNext(){
-    return kinds.stream()
-      .flatMap(k -> current(k).stream())
-      .max(Comparator
-        .<T>comparingInt(t -> t.content().length())
-        .thenComparingInt(t -> -t.kind().priority()));
+  private static void getChars(CharSequence s, int from, int to, char[] dst){
+    if (s instanceof String str){ str.getChars(from, to, dst, 0); return; }
+    if (s instanceof StringBuilder sb){ sb.getChars(from, to, dst, 0); return; }
+    for (int i= from; i < to; i++){ dst[i - from]= s.charAt(i); }
   }
-  private static String normalizeSource(String s){
-    if (s == null || s.isEmpty()){ return s; }
-    if (s.charAt(0) == '\uFEFF'){ s = s.substring(1); } // Drop BOM if present at start
-    s = s.replace("\r\n", "\n").replace('\r', '\n'); // Normalize common newline variants to '\n' CRLF -> LF, lone CR -> LF
-    s = s.replace('\u2028', '\n').replace('\u2029', '\n').replace('\u0085', '\n'); // Unicode separators to LF (LS, PS, NEL)
-    return s;
+  ///The illegal char is at 'offset' in the normalized text: its line and column are only counted now.
+  private RuntimeException illegalChar(int cp, CharSequence normalized, int offset){
+    int line= 1;
+    int col= 1;
+    for (int i= 0; i < offset; i++){
+      char c= normalized.charAt(i);
+      if (c == '\n'){ line++; col= 1; continue; }
+      boolean pairEnd= Character.isLowSurrogate(c) && i > 0 && Character.isHighSurrogate(normalized.charAt(i - 1));
+      if (!pairEnd){ col++; }
+    }
+    var at= new Span(fileName, line, col, line, col);
+    return withFrozen(()->errFactory().illegalCharAt(at, cp, self()));
   }
   public Tokenizer input(URI fileName){
     return input(fileName, StandardCharsets.UTF_8);
@@ -87,15 +318,44 @@ public abstract class MetaTokenizer<
     return input(Path.of(fileName),charset);  
   }
   public Tokenizer input(Path path){ return input(path,StandardCharsets.UTF_8); }
+  ///Files are decoded and normalized into a String, unless mapFiles says to map them.
   public Tokenizer input(Path path, Charset charset){
     Objects.requireNonNull(path, "path");
-    String raw= Fs.readUtf8(path);
-    return input(path.toUri(), normalizeSource(raw));
+    boolean asciiCompatible= charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.US_ASCII);
+    var mapped= asciiCompatible && Fs.of(()->Files.size(path)) >= mapFilesFrom ? MappedAscii.of(path) : null;
+    if (mapped != null){ return input(path.toUri(), mapped); }
+    return input(path.toUri(), Fs.readUtf8(path));
+  }
+  ///ASCII files without '\r' of at least minBytes bytes are lexed straight from a read only mapping of the file,
+  ///skipping the decoding and normalization pass: only the token contents are decoded. Long.MAX_VALUE (the default) never maps.
+  ///The mapping lasts from .input to the end of the first lexing pass (tokenize, run) or .reset:
+  ///then the file is copied to a String and unmapped. Meanwhile the file is open, and can not be deleted on Windows;
+  ///a file truncated meanwhile fails the pass with an UncheckedIOException.
+  public Tokenizer mapFiles(long minBytes){
+    assert !frozen : "cannot call .mapFiles during .tokenize, .postTokenize, .buildTokenTree";
+    check(minBytes >= 0, "minBytes must not be negative: "+minBytes);
+    this.mapFilesFrom= minBytes;
+    return self();
+  }
+  //after a lexing pass, or when the input is dropped: copies a mapped input to a String and unmaps the file
+  private void unmap(){
+    if (!(input instanceof MappedAscii m)){ return; }
+    input= null;//a failed close leaves no input, rather than a closed mapping
+    input= m.close();
+  }
+  private RuntimeException mapFault(InternalError e){
+    if (!(input instanceof MappedAscii)){ throw e; }
+    return MappedAscii.truncated(e);
   }
   public Tokenizer input(URI fileName, String input){
+    return input(fileName, (CharSequence)Objects.requireNonNull(input));
+  }
+  private Tokenizer input(URI fileName, CharSequence raw){
     assert !frozen : "cannot call .input during .tokenize, .postTokenize, .buildTokenTree";
+    assert whiteList == null || errFactory != null : "call method .setErrFactory before .input";
     this.fileName= Objects.requireNonNull(fileName);
-    this.input= Objects.requireNonNull(normalizeSource(input));
+    unmap();
+    this.input= prepare(raw, whiteList, true);
     return self();
   }
   public Tokenizer tokenKinds(List<TK> tks, TK sof, TK eof){
@@ -105,8 +365,162 @@ public abstract class MetaTokenizer<
     this.sof= Objects.requireNonNull(sof);
     this.eof= Objects.requireNonNull(eof);
     this.kinds= List.copyOf(tks);
+    this.riskyKinds= risky(kinds);
+    this.modes= new ArrayList<>(List.of(new LexMode<>(initialMode, kinds, IntStream.range(0, kinds.size()).toArray())));
+    this.pushTo= new int[kinds.size()];
+    Arrays.fill(pushTo, -1);
+    this.pops= new boolean[kinds.size()];
+    this.trivia= Set.of();
+    if (profile != null){ profile.bind(this.kinds); }
+    this.lexer= null;
+    return self();
+  }
+  ///Adds (or redefines) a lexer mode that only tries the given kinds, in tokenKinds order.
+  ///mode(initialMode,...) narrows the mode tokenization starts in.
+  public Tokenizer mode(String name, List<TK> tks){
+    assert !frozen : "cannot call .mode during .tokenize, .postTokenize, .buildTokenTree";
+    assert kinds != null : "call method .tokenKinds before .mode";
+    assert !tks.isEmpty() && kinds.containsAll(tks) : "mode kinds must be a non empty subset of tokenKinds";
+    var m= new LexMode<>(Objects.requireNonNull(name), kinds, IntStream.range(0, kinds.size()).filter(i->tks.contains(kinds.get(i))).toArray());
+    int i= modeIndex(name);
+    if (i < 0){ modes.add(m); } else { modes.set(i, m); }
+    return self();
+  }
+  ///Matching kind pushes the given mode.
+  public Tokenizer pushOn(TK kind, String mode){
+    assert !frozen : "cannot call .pushOn during .tokenize, .postTokenize, .buildTokenTree";
+    int m= modeIndex(mode);
+    assert m >= 0 : "call method .mode before .pushOn for mode "+mode;
+    pushTo[kindIndex(kind)]= m;
+    return self();
+  }
+  ///Matching kind pops the current mode. If the kind also pushes, it pops first.
+  ///Popping the outermost mode has no effect.
+  public Tokenizer popOn(TK kind){
+    assert !frozen : "cannot call .popOn during .tokenize, .postTokenize, .buildTokenTree";
+    pops[kindIndex(kind)]= true;
+    return self();
+  }
+  ///The kinds of a mode, in the order a scanner for that mode must use.
+  public List<TK> modeKinds(String mode){
+    int m= modeIndex(mode);
+    assert m >= 0 : "unknown mode "+mode;
+    return modes.get(m).kinds(kinds);
+  }
+  ///Optional backend matching many kinds in a single scan, see TokenScanner.fused.
+  public Tokenizer scanner(TokenScanner scanner){ return scanner(initialMode, scanner); }
+  ///Scanner for a mode: it must be made for modeKinds(mode).
+  public Tokenizer scanner(String mode, TokenScanner scanner){
+    assert !frozen : "cannot call .scanner during .tokenize, .postTokenize, .buildTokenTree";
+    int m= modeIndex(mode);
+    assert m >= 0 : "unknown mode "+mode;
+    modes.set(m, modes.get(m).withScanner(Objects.requireNonNull(scanner)));
+    return self();
+  }
+  ///The current configuration, compiled and frozen: see LexerSpec.
+  public LexerSpec<T,TK> lexerSpec(){ return lexerSpec(null); }
+  ///As lexerSpec(), also carrying the token tree spec used by buildTokenTree().
+  public LexerSpec<T,TK> lexerSpec(TokenTreeSpec<T,TK> tree){
+    assert kinds != null : "call method .tokenKinds before .lexerSpec";
+    return new LexerSpec<>(kinds, sof, eof, modes, pushTo, pops, whiteList, trivia, tree);
+  }
+  ///Takes kinds, modes, scanners, whiteList and token tree spec from a compiled spec:
+  ///the cheap way to set up a tokenizer per file.
+  public Tokenizer spec(LexerSpec<T,TK> spec){
+    assert !frozen : "cannot call .spec during .tokenize, .postTokenize, .buildTokenTree";
+    this.sof= spec.sof;
+    this.eof= spec.eof;
+    this.kinds= spec.kinds;
+    this.riskyKinds= risky(kinds);
+    this.modes= new ArrayList<>(spec.modes);
+    this.pushTo= spec.pushTo();
+    this.pops= spec.pops();
+    this.whiteList= spec.whiteList;
+    this.trivia= spec.trivia;
+    this.treeSpec= spec.treeSpec();
+    if (profile != null){ profile.bind(this.kinds); }
+    this.lexer= null;
+    return self();
+  }
+  ///Records per kind lexer counters in profile, or stops profiling if null.
+  ///The profiled lexer runs the same cursors and scanners, timed, so it produces the same tokens.
+  ///Without a profile the lexer runs the plain cursors and scanners: the hook costs nothing.
+  public Tokenizer profile(LexProfile<TK> profile){
+    assert !frozen : "cannot call .profile during .tokenize, .postTokenize, .buildTokenTree";
+    assert kinds != null : "call method .tokenKinds before .profile";
+    if (profile != null){ profile.bind(kinds); }
+    this.profile= profile;
+    this.lexer= null;
+    return self();
+  }
+  ///Bounds each match attempt to reading at most 'chars' chars of input, backtracking included, or no bound if 0.
+  ///A kind running out of budget is reported with ErrFactory.matchBudgetExceededAt at that position instead of hanging the lexer.
+  ///Worth setting when tokenKinds have riskyKinds(), or when grammars come from untrusted sources.
+  public Tokenizer matchBudget(long chars){
+    assert !frozen : "cannot call .matchBudget during .tokenize, .postTokenize, .buildTokenTree";
+    check(chars >= 0, "match budget must not be negative: "+chars);
+    this.matchBudget= chars;
+    return self();
+  }
+  ///The tokenKinds whose regex may backtrack catastrophically: see TokenMatch.Regex.risky.
+  ///Found by tokenKinds (or spec), once per kinds list.
+  public List<TK> riskyKinds(){
+    assert kinds != null : "call method .tokenKinds before .riskyKinds";
+    return riskyKinds;
+  }
+  private static <TK extends TokenKind> List<TK> risky(List<TK> kinds){
+    return kinds.stream().filter(k->k.matcher() instanceof TokenMatch.Regex r && r.risky()).toList();
+  }
+  ///Token contents are taken from interner, or made by substring if null.
+  ///Sharing one interner across the tokenizers of a build makes equal contents share one String.
+  public Tokenizer interner(TokenInterner interner){
+    assert !frozen : "cannot call .interner during .tokenize, .postTokenize, .buildTokenTree";
+    this.interner= interner;
+    return self();
+  }
+  ///Kinds, as whitespace and comments, that postTokenize and run route to hiddenTokens instead of postTokens,
+  ///after the processors: the token tree and the parsers then only see the significant tokens.
+  ///Tokens.leadingTrivia and trailingTrivia find the trivia around a token.
+  public Tokenizer trivia(List<TK> kinds){
+    assert !frozen : "cannot call .trivia during .tokenize, .postTokenize, .buildTokenTree";
+    assert this.kinds != null : "call method .tokenKinds before .trivia";
+    assert this.kinds.containsAll(kinds) : "trivia kinds must be tokenKinds";
+    this.trivia= Set.copyOf(kinds);
+    return self();
+  }
+  ///Polled by tokenize, retokenize, tokens, postTokenize and buildTokenTree: see Cancellation.
+  public Tokenizer cancellation(Cancellation cancellation){
+    assert !frozen : "cannot call .cancellation during .tokenize, .postTokenize, .buildTokenTree";
+    this.cancellation= Objects.requireNonNull(cancellation);
+    return self();
+  }
+  public Cancellation cancellation(){ return cancellation; }
+  ///Forgets the input and all the results, keeping the configuration and the lexer: ready for the next file.
+  public Tokenizer reset(){
+    assert !frozen : "cannot call .reset during .tokenize, .postTokenize, .buildTokenTree";
+    fileName= null;
+    unmap();
+    input= null;
+    lines= null;
+    starts= null;
+    modesAt= null;
+    reaches= null;
+    allTokens= null;
+    postTokens= null;
+    hiddenTokens= null;
+    tree= null;
+    base= null;
     return self();
   }
+  private int modeIndex(String name){
+    assert modes != null : "call method .tokenKinds before using modes";
+    return IntStream.range(0, modes.size()).filter(i->modes.get(i).name.equals(name)).findFirst().orElse(-1);
+  }
+  private int kindIndex(TK kind){
+    int res= kinds.indexOf(kind);
+    assert res >= 0 : "kind "+kind+" is not in tokenKinds";
+    return res;
+  }
   public Tokenizer startingPosition(int line, int col){
     assert !frozen : "cannot call .startingPosition during .tokenize, .postTokenize, .buildTokenTree";
     this.line= line;
@@ -118,11 +532,13 @@ public abstract class MetaTokenizer<
     this.errFactory= Objects.requireNonNull(errFactory);
     return self();
   }  
+  ///Checks the current input, if any, and the following ones: only the given chars are allowed.
+  ///Called before .input, the check happens in the normalization pass.
   public Tokenizer whiteList(String whiteList){
     assert !frozen : "cannot call .whiteList during .tokenize, .postTokenize, .buildTokenTree";
     assert errFactory!=null: "call method .errFactory before tokenize";
-    assert input!=null:      "call method .input before tokenize";
-    new Validate(Objects.requireNonNull(whiteList)).of(input);
+    this.whiteList= new WhiteList(Objects.requireNonNull(whiteList));
+    if (input != null){ prepare(input, this.whiteList, false); }
     return self();
   }
   public Tokenizer tokenize(){
@@ -131,30 +547,379 @@ public abstract class MetaTokenizer<
     assert input != null:      "call method .input before .tokenize";
     assert kinds != null:      "call method .tokenKinds before .tokenize";
     assert errFactory != null: "call method .errFactory before .tokenize";
-    int preLine= line;
-    int preCol= col;
-    tmp.add(make(sof,"", line, col,List.of()));
-    withFrozen(()->{
-      while (pos < input.length()){
-        var best = findNext().orElseThrow(this::error);
-        assert best.content().length() > 0 : "lexer produced a zero-length token for " + best.kind();
-        tmp.add(best);
-        advance(best.content());
-      }return null;});
-    tmp.add(make(eof,"", line, col,List.of()));
+    var starts= new Ints(input.length() / 4);
+    var modesAt= new Ints(input.length() / 4);
+    var lex= lexer().at(input, 0, initialStack);
+    starts.add(0);
+    modesAt.add(0);
+    if (compact){ return tokenizeCompact(lex, starts, modesAt); }
+    tmp.add(make(sof,"", line, col, line, col, List.of()));
+    try{ withFrozen(()->lexUntil(lex, input.length(), tmp, starts, modesAt)); }
+    catch(InternalError e){ throw mapFault(e); }
+    finally{ unmap(); }
+    return done(lex, tmp, starts, modesAt);
+  }
+  ///With compact(true), tokenize stores allTokens as a TokenTable over the input instead of a list of tokens.
+  ///retokenize turns it back into a plain list.
+  public Tokenizer compact(boolean compact){
+    assert !frozen : "cannot call .compact during .tokenize, .postTokenize, .buildTokenTree";
+    this.compact= compact;
+    return self();
+  }
+  ///allTokens as a TokenTable: call .compact(true) before .tokenize.
+  @SuppressWarnings("unchecked")
+  public TokenTable<T,TK> tokenTable(){
+    assert allTokens instanceof TokenTable : "call method .tokenTable after .compact(true).tokenize";
+    return (TokenTable<T,TK>)allTokens;
+  }
+  private Tokenizer tokenizeCompact(Lexer lex, Ints starts, Ints modesAt){
+    var all= new ArrayList<TK>(kinds);
+    all.add(sof);
+    all.add(eof);
+    int n= input.length() / 4;
+    var kind= new Ints(n);
+    var length= new Ints(n);
+    var lines= new Ints(n);
+    var cols= new Ints(n);
+    kind.add(kinds.size());
+    length.add(0);
+    lines.add(line);
+    cols.add(col);
+    try{
+      withFrozen(()->{
+        while (lex.pos < input.length()){
+          int start= lex.pos;
+          starts.add(start);
+          modesAt.add(lex.modeAt());
+          lines.add(lex.line);
+          cols.add(lex.col);
+          long best= lex.findNext();
+          if (best < 0){ throw error(lex); }
+          lex.skip(best);
+          kind.add(TokenScanner.kind(best));
+          length.add(lex.pos - start);
+        }
+        return null;});
+    }
+    catch(InternalError e){ throw mapFault(e); }
+    finally{ unmap(); }
+    starts.add(lex.pos);
+    modesAt.add(lex.modeAt());
+    kind.add(kinds.size() + 1);
+    length.add(0);
+    lines.add(lex.line);
+    cols.add(lex.col);
+    this.starts= starts.toArray();
+    allTokens= new TokenTable<>(input, List.copyOf(all), this::make, interner, kind.toArray(), this.starts, length.toArray(), lines.toArray(), cols.toArray());
+    this.modesAt= modesAt.toArray();
+    reaches= null;
+    base= new Span(fileName,line,col,lex.line,lex.col);
+    assertMonotonic(allTokens);
+    return self();
+  }
+  private static final int[] initialStack= {0};
+  private Lexer lexer(){
+    if (lexer == null){ lexer= new Lexer(); }
+    return lexer;
+  }
+  ///Lexes with 'lex' until it reaches 'end', recording the tokens, their starts and modes.
+  private Void lexUntil(Lexer lex, int end, List<T> res, Ints starts, Ints modesAt){
+    while (lex.pos < end){
+      starts.add(lex.pos);
+      modesAt.add(lex.modeAt());
+      var t= lex.lexOne();
+      if (t == null){ throw error(lex); }
+      res.add(t);
+    }
+    return null;
+  }
+  ///Adds EOF where 'lex' stopped and publishes the tokens.
+  private Tokenizer done(Lexer lex, List<T> tmp, Ints starts, Ints modesAt){
+    starts.add(lex.pos);
+    modesAt.add(lex.modeAt());
+    tmp.add(make(eof,"", lex.line, lex.col, lex.line, lex.col, List.of()));
+    allTokens= List.copyOf(tmp);
+    this.starts= starts.toArray();
+    this.modesAt= modesAt.toArray();
+    reaches= null;
+    base= new Span(fileName,line,col,lex.line,lex.col);
+    assertMonotonic(allTokens);
+    return self();
+  }
+  ///Same result as tokenize, lexing chunks of about chunkSize chars on the pool.
+  ///Chunks start after a newline and are lexed speculatively in the initial mode.
+  ///A chunk is kept only if the text before it ends with a token ending exactly at its start, in the initial mode;
+  ///otherwise, for instance if a multi-line token spans the boundary, that chunk is lexed again sequentially.
+  ///make is called from the pool threads.
+  public Tokenizer tokenize(ForkJoinPool pool, int chunkSize){
+    assert !frozen : "cannot call .tokenize during .tokenize, .postTokenize, .buildTokenTree";
+    assert input != null:      "call method .input before .tokenize";
+    assert kinds != null:      "call method .tokenKinds before .tokenize";
+    assert errFactory != null: "call method .errFactory before .tokenize";
+    check(chunkSize > 0, "chunkSize must be positive: "+chunkSize);
+    var bounds= new Ints(input.length() / chunkSize + 2);
+    bounds.add(0);
+    for (int b= 0; b < input.length();){
+      b= Math.min(b + chunkSize, input.length());
+      while (b < input.length() && input.charAt(b++) != '\n'){}
+      bounds.add(b);
+    }
+    var bs= bounds.toArray();
+    if (bs.length <= 2){ return tokenize(); }
+    var chunks= IntStream.range(0, bs.length - 1).mapToObj(i->new Chunk(bs[i], bs[i + 1])).toList();
+    var tmp= new ArrayList<T>();
+    var starts= new Ints(input.length() / 4);
+    var modesAt= new Ints(input.length() / 4);
+    var lex= lexer().at(input, 0, initialStack);
+    tmp.add(make(sof,"", line, col, line, col, List.of()));
+    starts.add(0);
+    modesAt.add(0);
+    try{
+      pool.submit(()->chunks.parallelStream().forEach(Chunk::lex)).join();
+      withFrozen(()->{
+        for (var c: chunks){
+          if (c.valid && lex.pos == c.start && lex.modeAt() == 0){
+            tmp.addAll(c.tokens);
+            starts.addAll(c.starts);
+            modesAt.addAll(c.modesAt);
+            lex.at(input, c.lex.pos, c.lex.modeStack());
+          }
+          else { lexUntil(lex, c.end, tmp, starts, modesAt); }
+        }
+        return null;});
+    }
+    catch(InternalError e){ throw mapFault(e); }
+    finally{ unmap(); }
+    return done(lex, tmp, starts, modesAt);
+  }
+  ///A speculative slice of a parallel tokenize: lexing stops silently, leaving it invalid, when no kind matches.
+  private final class Chunk{
+    final int start;
+    final int end;
+    Lexer lex;
+    boolean valid= true;
+    final List<T> tokens= new ArrayList<>();
+    final Ints starts;
+    final Ints modesAt;
+    Chunk(int start, int end){
+      this.start= start;
+      this.end= end;
+      this.starts= new Ints((end - start) / 4);
+      this.modesAt= new Ints((end - start) / 4);
+    }
+    void lex(){
+      lex= new Lexer().at(input, start, initialStack);
+      while (lex.pos < end){
+        starts.add(lex.pos);
+        modesAt.add(lex.modeAt());
+        var t= lex.lexOne();
+        if (t == null){ valid= false; return; }
+        tokens.add(t);
+      }
+    }
+  }
+  ///Streaming counterpart of input(fileName,...).tokenize().allTokens(): the tokens of 'in', from SOF to EOF,
+  ///read through a sliding window so that neither the input nor the tokens are retained.
+  ///A token is only decided once at least windowSize chars past its start are available, or the input ended;
+  ///if deciding it read the last char of the window, the window is doubled and the decision retried.
+  ///So the tokens are those of tokenize whatever windowSize: a longer token or lookahead only grows the window.
+  ///Kinds using the default TokenMatch.cursor may read anything, so they grow the window to the whole input.
+  ///The whiteList is not checked. The reader is not closed.
+  public Spliterator<T> tokens(URI fileName, Reader in, int windowSize){
+    assert !frozen : "cannot call .tokens during .tokenize, .postTokenize, .buildTokenTree";
+    assert kinds != null:      "call method .tokenKinds before .tokens";
+    assert errFactory != null: "call method .errFactory before .tokens";
+    check(windowSize > 0, "windowSize must be positive: "+windowSize);
+    this.fileName= Objects.requireNonNull(fileName);
+    return new Streaming(new NormalizingReader(Objects.requireNonNull(in)), windowSize);
+  }
+  public Spliterator<T> tokens(URI fileName, Reader in){ return tokens(fileName, in, 1 << 13); }
+  public Spliterator<T> tokens(URI fileName, ReadableByteChannel in, Charset charset){
+    return tokens(fileName, Channels.newReader(in, charset));
+  }
+  private final class Streaming implements Spliterator<T>{
+    private final Reader in;
+    private final int windowSize;
+    private final char[] buf;
+    private final Lexer lex= new Lexer();
+    private boolean ended= false;
+    private boolean started= false;
+    private boolean done= false;
+    Streaming(Reader in, int windowSize){
+      this.in= in;
+      this.windowSize= windowSize;
+      this.buf= new char[windowSize];
+      lex.at("", 0, line, col, initialStack).tracked();
+    }
+    ///Drops the chars before the current token and appends at least 'more' chars of 'in', unless it ends.
+    private void refill(int more){
+      var res= new StringBuilder(lex.src.length() - lex.pos + more).append(lex.src, lex.pos, lex.src.length());
+      int target= res.length() + more;
+      while (res.length() < target){
+        int n= Fs.of(()->in.read(buf));
+        if (n < 0){ ended= true; break; }
+        res.append(buf, 0, n);
+      }
+      lex.src= res.toString();
+      lex.pos= 0;
+    }
+    @Override public boolean tryAdvance(Consumer<? super T> action){
+      if (done){ return false; }
+      if (!started){
+        started= true;
+        action.accept(make(sof, "", lex.line, lex.col, lex.line, lex.col, List.of()));
+        return true;
+      }
+      while (!ended && lex.src.length() - lex.pos < windowSize){ refill(windowSize); }
+      while (lex.pos < lex.src.length()){
+        long best= lex.findNext();
+        if (!ended && lex.reached() == Integer.MAX_VALUE){ refill(Math.max(windowSize, lex.src.length() - lex.pos)); continue; }
+        if (best < 0){ throw error(lex); }
+        action.accept(lex.take(best));
+        return true;
+      }
+      done= true;
+      action.accept(make(eof, "", lex.line, lex.col, lex.line, lex.col, List.of()));
+      return true;
+    }
+    @Override public Spliterator<T> trySplit(){ return null; }
+    @Override public long estimateSize(){ return Long.MAX_VALUE; }
+    @Override public int characteristics(){ return ORDERED | NONNULL; }
+  }
+  ///Mode stack before allTokens[i] was lexed, rebuilt walking back to the last token seen at each lower depth.
+  private int[] modeStackAt(int i){
+    int depth= modesAt[i] >>> 16;
+    var res= new int[depth + 1];
+    res[depth]= modesAt[i] & 0xFFFF;
+    for (int j= i - 1; j >= 0 && depth > 0; j--){
+      if (modesAt[j] >>> 16 == depth - 1){ res[--depth]= modesAt[j] & 0xFFFF; }
+    }
+    return res;
+  }
+  ///Replaces 'removed' chars at 'offset' of the tokenized input with 'inserted', and updates allTokens
+  ///relexing only around the edit: lexing restarts at the first token whose decision read the edited text
+  ///(or read up to the end of the input), and stops as soon as a token starts where an old token started, in the same mode.
+  ///The old tokens after that point are reused, remade with a shifted line/column only if needed.
+  ///How far each decision read is recorded while relexing; the first retokenize after tokenize lexes the input once more to record it.
+  ///postTokens and tokenTree are discarded: run .postTokenize and .buildTokenTree again.
+  ///The whiteList is not checked on the inserted text.
+  public Tokenizer retokenize(int offset, int removed, String inserted){
+    assert !frozen : "cannot call .retokenize during .tokenize, .postTokenize, .buildTokenTree";
+    assert allTokens != null : "call method .tokenize before .retokenize";
+    var ins= normalizeSource(Objects.requireNonNull(inserted));
+    check(offset >= 0 && removed >= 0 && offset + removed <= input.length(),
+      "Edit out of range: offset "+offset+" removed "+removed+" for input length "+input.length());
+    var old= allTokens;
+    int last= old.size() - 1;
+    var reaches= reaches();
+    int r= firstReaching(reaches, offset);
+    int delta= ins.length() - removed;
+    int editEnd= offset + ins.length();
+    lines= lines.edit(offset, removed, ins);
+    input= new StringBuilder(input.length() + delta)
+      .append(input, 0, offset).append(ins).append(input, offset + removed, input.length()).toString();
+    allTokens= null;
+    postTokens= null;
+    hiddenTokens= null;
+    tree= null;
+    var lex= lexer().at(input, starts[r], modeStackAt(r)).tracked();
+    var mid= new ArrayList<T>();
+    var newStarts= new Ints(last + 1 + Math.max(delta, 0));
+    var newModes= new Ints(last + 1 + Math.max(delta, 0));
+    var newReaches= new Ints(last + 1 + Math.max(delta, 0));
+    newStarts.addAll(starts, 0, r);
+    newModes.addAll(modesAt, 0, r);
+    newReaches.addAll(reaches, 0, r);
+    int j= withFrozen(()->{
+      while (lex.pos < input.length()){
+        if (lex.pos >= editEnd){
+          int k= Arrays.binarySearch(starts, r + 1, last, lex.pos - delta);
+          if (k >= 0 && modesAt[k] == lex.modeAt() && lex.sameModeStack(modeStackAt(k))){ return k; }
+        }
+        newStarts.add(lex.pos);
+        newModes.add(lex.modeAt());
+        var t= lex.lexOne();
+        if (t == null){ throw error(lex); }
+        mid.add(t);
+        newReaches.add(lex.reached());
+      }
+      return last;});
+    var tmp= new ArrayList<T>(old.size() + mid.size());
+    tmp.addAll(old.subList(0, r));
+    tmp.addAll(mid);
+    shiftedTail(old, j, lex, tmp);
+    for (int k= j; k <= last; k++){ newStarts.add(starts[k] + delta); }
+    newModes.addAll(modesAt, j, last);
+    newModes.add(j == last ? lex.modeAt() : modesAt[last]);
+    for (int k= j; k <= last; k++){ newReaches.add(reaches[k] == Integer.MAX_VALUE ? reaches[k] : reaches[k] + delta); }
     allTokens= List.copyOf(tmp);
-    base= new Span(fileName,preLine,preCol,line,col);
+    starts= newStarts.toArray();
+    modesAt= newModes.toArray();
+    this.reaches= newReaches.toArray();
+    var eofTok= allTokens.getLast();
+    base= new Span(fileName, base.startLine(), base.startCol(), eofTok.line(), eofTok.column());
     assertMonotonic(allTokens);
     return self();
   }
+  ///By allTokens index, how far lexing the token read, as Lexer.reached: Integer.MAX_VALUE for EOF.
+  ///The first call after tokenize lexes the input again, tracked, to find it.
+  private int[] reaches(){
+    if (reaches != null){ return reaches; }
+    int last= starts.length - 1;
+    var res= new int[last + 1];
+    var lex= lexer().at(input, 0, initialStack).tracked();
+    withFrozen(()->{
+      for (int i= 1; i < last; i++){
+        assert lex.pos == starts[i] : "relexing for retokenize found other tokens";
+        long best= lex.findNext();
+        if (best < 0){ throw Bug.of("relexing for retokenize found no token at "+lex.pos); }
+        res[i]= lex.reached();
+        lex.skip(best);
+      }
+      return null;});
+    res[last]= Integer.MAX_VALUE;
+    return reaches= res;
+  }
+  ///The first token after SOF whose decision read text at offset or after: EOF if there is none.
+  private static int firstReaching(int[] reaches, int offset){
+    int r= 1;
+    while (r < reaches.length - 1 && reaches[r] <= offset){ r++; }
+    return r;
+  }
+  ///Adds old[j..] to res, moved so that old[j] starts where 'at' stopped.
+  private void shiftedTail(List<T> old, int j, Lexer at, List<T> res){
+    var first= old.get(j);
+    int dLine= at.line - first.line();
+    int dCol= at.col - first.column();
+    if (dLine == 0 && dCol == 0){ res.addAll(old.subList(j, old.size())); return; }
+    for (var t: old.subList(j, old.size())){
+      int c= t.line() == first.line() ? t.column() + dCol : t.column();
+      long end= TokenEnd.of(t);
+      int endL= TokenEnd.line(end);
+      int endC= endL == first.line() ? TokenEnd.column(end) + dCol : TokenEnd.column(end);
+      res.add(make(t.kind(), t.content(), t.line() + dLine, c, endL + dLine, endC, t.tokens()));
+    }
+  }
   public Tokenizer postTokenize(TokenProcessor.Map<T,TK,E,Tokenizer,Parser,Err> map){
     assert !allTokens.isEmpty(): "call method .postTokenizer after .tokenize";
-    postTokens= withFrozen(()->IntStream.range(0,allTokens.size()).boxed()
-      .flatMap(i->map.process(i,allTokens.get(i),self())).toList());
+    var processed= withFrozen(()->map.processAll(allTokens, self()));
+    if (trivia.isEmpty()){ postTokens= processed; hiddenTokens= List.of(); }
+    else {
+      var res= new ArrayList<T>(processed.size());
+      var hidden= new ArrayList<T>();
+      for (var t: processed){ (trivia.contains(t.kind()) ? hidden : res).add(t); }
+      postTokens= Collections.unmodifiableList(res);
+      hiddenTokens= Collections.unmodifiableList(hidden);
+    }
     assertMonotonic(postTokens);
     return self();
   } 
   List<T> tokensForTree(){ return postTokens == null ? allTokens : postTokens; }
+  ///Uses the token tree spec of the LexerSpec given to .spec.
+  public Tokenizer buildTokenTree(){
+    assert treeSpec != null : "call method .spec with a tree spec before .buildTokenTree()";
+    return buildTokenTree(treeSpec);
+  }
   public Tokenizer buildTokenTree(TokenTreeSpec<T,TK> spec){
     assert !frozen : "cannot call .buildTokenTree during .tokenize, .postTokenize, .buildTokenTree";
     assert !allTokens.isEmpty(): "call method .buildTokenTree after .tokenize";
@@ -164,6 +929,93 @@ public abstract class MetaTokenizer<
     tree = withFrozen(() -> TokenTreeBulder.of(spec, self(),tmp));
     return self();
   }
+  ///Tokenizes, post processes with map and builds the token tree with spec in a single pass:
+  ///each token goes from the lexer through the processors straight into the tree builder,
+  ///and only the post processed tokens, the trivia and the tree are stored.
+  ///So allTokens is not available afterwards, and the processors must not read it.
+  ///Errors from the lexer and from the processors are thrown as they happen, so a processor error
+  ///before a lexing error is reported instead of it, and the processors do not run again.
+  ///Only if the tree can not be built is the input lexed again, so that the tree diagnostics,
+  ///that need allTokens, are exactly those of the staged calls.
+  public Tokens<T,TK> run(TokenProcessor.Map<T,TK,E,Tokenizer,Parser,Err> map, TokenTreeSpec<T,TK> spec){
+    assert !frozen : "cannot call .run during .tokenize, .postTokenize, .buildTokenTree";
+    assert input != null:      "call method .input before .run";
+    assert kinds != null:      "call method .tokenKinds before .run";
+    assert errFactory != null: "call method .errFactory before .run";
+    var fused= new Fused(map);
+    try{
+      var root= withFrozen(()->new TokenTrees<T,TK,E,Tokenizer,Parser,Err>(spec, self()){
+        E diagOnBadCloser(T open,T stop){ throw new Out(); }
+        E diagOnBadBarrier(T open,T stop){ throw new Out(); }
+      }.of(fused));
+      while (fused.hasNext()){ fused.next(); }
+      assert fused.out.getFirst().kind() == sof : "first token must be SOF";
+      assert fused.out.getLast().kind() == eof : "last token must be EOF";
+      assertMonotonic(fused.out);
+      allTokens= null;
+      starts= null;
+      modesAt= null;
+      reaches= null;
+      postTokens= Collections.unmodifiableList(fused.out);
+      hiddenTokens= Collections.unmodifiableList(fused.hidden);
+      tree= root.tokens();
+      base= new Span(fileName,line,col,fused.lex.line,fused.lex.col);
+    }
+    catch(Out _){ diagnoseTree(fused, spec); }
+    catch(InternalError e){ throw mapFault(e); }
+    finally{ unmap(); }
+    return new Tokens<>(span(), postTokens, hiddenTokens, tree);
+  }
+  ///The tree of the fused pass can not be built: throws the diagnostic of buildTokenTree.
+  ///The processed tokens of the fused pass are kept, completed to the end of the input, so processors run once;
+  ///only the lexing is done again, since the diagnostics look at allTokens.
+  private void diagnoseTree(Fused fused, TokenTreeSpec<T,TK> spec){
+    while (fused.hasNext()){ fused.next(); }
+    tokenize();
+    postTokens= Collections.unmodifiableList(fused.out);
+    hiddenTokens= Collections.unmodifiableList(fused.hidden);
+    buildTokenTree(spec);
+    throw Bug.of("the fused tree stopped, but buildTokenTree did not");
+  }
+  ///The tokens of the fused pass of run, lexed and post processed on demand.
+  ///Only the forward moves used by the tree builder are supported.
+  private final class Fused implements ListIterator<T>{
+    final Lexer lex= lexer().at(input, 0, initialStack);
+    final ArrayList<T> out= new ArrayList<>(input.length() / 4);
+    final ArrayList<T> hidden= new ArrayList<>();
+    private final TokenProcessor.Map<T,TK,E,Tokenizer,Parser,Err> map;
+    private final ArrayDeque<T> pending= new ArrayDeque<>();
+    private final Consumer<T> push= t->{ if (trivia.contains(t.kind())){ hidden.add(t); } else { pending.add(t); } };
+    private int raw= 0;
+    private boolean ended= false;
+    Fused(TokenProcessor.Map<T,TK,E,Tokenizer,Parser,Err> map){ this.map= map; }
+    @Override public boolean hasNext(){
+      while (pending.isEmpty() && !ended){
+        int i= raw++;
+        map.processOne(i, i == 0 ? make(sof, "", line, col, line, col, List.of()) : lexNext(), self(), push);
+      }
+      return !pending.isEmpty();
+    }
+    private T lexNext(){
+      if (lex.pos == input.length()){ ended= true; return make(eof, "", lex.line, lex.col, lex.line, lex.col, List.of()); }
+      var t= lex.lexOne();
+      if (t == null){ throw error(lex); }
+      return t;
+    }
+    @Override public T next(){
+      if (!hasNext()){ throw new NoSuchElementException(); }
+      var t= pending.poll();
+      out.add(t);
+      return t;
+    }
+    @Override public int nextIndex(){ return out.size(); }
+    @Override public boolean hasPrevious(){ throw new UnsupportedOperationException(); }
+    @Override public T previous(){ throw new UnsupportedOperationException(); }
+    @Override public int previousIndex(){ throw new UnsupportedOperationException(); }
+    @Override public void remove(){ throw new UnsupportedOperationException(); }
+    @Override public void set(T t){ throw new UnsupportedOperationException(); }
+    @Override public void add(T t){ throw new UnsupportedOperationException(); }
+  }
   public URI fileName(){
     assert fileName != null : "call .input before .fileName";
     return fileName;
@@ -192,6 +1044,11 @@ public abstract class MetaTokenizer<
     assert tree!=null: "call method .tokenTree after .buildTokenTree";    
     return tree;
   }
+  ///The trivia routed aside by postTokenize or run, in source order: see trivia(..) and Tokens.leadingTrivia.
+  public List<T> hiddenTokens(){
+    assert hiddenTokens!=null: "call method .hiddenTokens after .postTokenize";
+    return hiddenTokens;
+  }
   public List<T> postTokens(){
     assert postTokens!=null: "call method .postTokens after .postTokenize";    
     return postTokens;
@@ -209,17 +1066,4 @@ public abstract class MetaTokenizer<
       prevLine = l; prevCol = c;
     }
   }
-  class Validate{
-    String whiteList; Validate(String whiteList){ this.whiteList= whiteList; }
-    int line = 1; int col = 1;
-    void of(String src){ src.codePoints().forEach(this::ofSingle); }
-    void ofSingle(int cp){
-      boolean ok= whiteList.indexOf(cp) >= 0;
-      if (!ok){
-        var at = new Span(fileName, line, col, line, col);
-        throw withFrozen(()->errFactory().illegalCharAt(at, cp,self()));
-      }
-      if (cp == '\n'){ line++; col = 1; } else { col++; }
-    }
-  }
-}
\ No newline at end of file
+}
@@ -0,0 +1,31 @@
+package metaParser;
+
+import java.io.IOException;
+import java.io.Reader;
+
+//package private: the normalization of MetaTokenizer.input applied while reading, for streaming.
+//Drops a leading BOM, and turns CRLF, CR, LS, PS and NEL into '\n'.
+final class NormalizingReader extends Reader{
+  private final Reader in;
+  private boolean first= true;
+  private boolean afterCR= false;
+  NormalizingReader(Reader in){ this.in= in; }
+  @Override public int read(char[] buf, int off, int len) throws IOException{
+    while (true){
+      int n= in.read(buf, off, len);
+      if (n <= 0){ return n; }
+      int w= off;
+      for (int i= off; i < off + n; i++){
+        char c= buf[i];
+        boolean bom= first && c == '\uFEFF';
+        boolean lf= afterCR && c == '\n';
+        first= false;
+        afterCR= c == '\r';
+        if (bom || lf){ continue; }
+        buf[w++]= c == '\r' || c == '\u2028' || c == '\u2029' || c == '\u0085' ? '\n' : c;
+      }
+      if (w > off){ return w - off; }
+    }
+  }
+  @Override public void close() throws IOException{ in.close(); }
+}
@@ -0,0 +1,5 @@
+package metaParser;
+
+//package private: thrown by the diagnostic hooks of a TokenTrees to stop building the tree,
+//when the caller only needs to know where building stopped (TokenTreeBulder.ofRecovery, MetaTokenizer.run).
+class Out extends RuntimeException{ private static final long serialVersionUID= 1L; }
@@ -0,0 +1,27 @@
+package metaParser;
+
+//package private: the chars of src, recording the furthest index read since the last from(start).
+//MetaTokenizer reads through it to know how far the decision for a token looked ahead:
+//retokenize relexes every token that looked at the edited text, and tokens reads more input
+//while a decision looked at the last char of its window.
+final class ReachChars implements CharSequence{
+  final CharSequence src;
+  private int max;
+  ReachChars(CharSequence src){ this.src= src; }
+  ///Starts recording, counting start as read.
+  ReachChars from(int start){ max= start; return this; }
+  ///One past the furthest index read, or Integer.MAX_VALUE if the last char was read:
+  ///then more text at the end could change what was decided.
+  int reach(){ return max + 1 >= src.length() ? Integer.MAX_VALUE : max + 1; }
+  @Override public int length(){ return src.length(); }
+  @Override public char charAt(int index){
+    if (index > max){ max= index; }
+    return src.charAt(index);
+  }
+  @Override public CharSequence subSequence(int start, int end){
+    if (end - 1 > max){ max= end - 1; }
+    return src.subSequence(start, end);
+  }
+  //a matcher reading the String may look anywhere
+  @Override public String toString(){ max= src.length() - 1; return src.toString(); }
+}
@@ -0,0 +1,356 @@
+package metaParser;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+//package private: parses the subset of java.util.regex that has a plain automaton meaning,
+//and builds a Thompson NFA over char ranges out of it.
+//Unsupported syntax (lookaround, anchors, back references, lazy/possessive quantifiers, flags...)
+//throws Unsupported, and the kind stays on the regex path.
+//So do regexes where the first match found by java.util.regex may be shorter than the longest one (see firstIsLongest).
+final class RegexNfa{
+  static final class Unsupported extends RuntimeException{
+    private static final long serialVersionUID= 1L;
+    Unsupported(String msg){ super(msg, null, false, false); }
+  }
+  sealed interface Re permits Chars, Seq, Alt, Repeat{}
+  ///Sorted, disjoint, inclusive [lo,hi] pairs over chars.
+  record Chars(int[] ranges) implements Re{}
+  record Seq(List<Re> res) implements Re{}
+  record Alt(List<Re> res) implements Re{}
+  record Repeat(Re re, int min, int max) implements Re{}//max < 0 for unbounded
+
+  static final int maxChar= 0xFFFF;
+  static Chars chars(int lo, int hi){ return new Chars(new int[]{lo, hi}); }
+  static Chars literal(char c){ return chars(c, c); }
+  static Re literal(String s){
+    var res= new ArrayList<Re>(s.length());
+    for (int i= 0; i < s.length(); i++){ res.add(literal(s.charAt(i))); }
+    return new Seq(res);
+  }
+
+  ///The automaton meaning of the matchers that TokenScanner.fused can compile.
+  static Re of(TokenMatch m){
+    return switch(m){
+      case TokenMatch.Regex r -> firstIsLongest(parse(r.regex()));
+      case TokenMatch.Literal l -> literal(l.text());
+      case TokenMatch.Keywords k -> new Alt(k.words().stream().map(RegexNfa::literal).toList());
+      case TokenMatch.CharRun c -> new Seq(List.of(new Chars(c.firstRanges()), new Repeat(new Chars(c.restRanges()), 0, -1)));
+      case TokenMatch.Delimited d when d.close().length() == 1 -> delimited(d);
+      default -> throw new Unsupported(m.toString());
+    };
+  }
+  private static Re delimited(TokenMatch.Delimited d){
+    char close= d.close().charAt(0);
+    Re body= d.escape() < 0
+      ? complement(new int[]{close, close})
+      : new Alt(List.of(
+        complement(union(List.of(new int[]{close, close}, new int[]{d.escape(), d.escape()}))),
+        new Seq(List.of(literal((char)d.escape()), chars(0, maxChar)))));
+    return new Seq(List.of(literal(d.open()), new Repeat(body, 0, -1), literal(close)));
+  }
+
+  // == Parsing ================================================================
+
+  static Re parse(String regex){
+    var p= new Parser(regex);
+    var res= p.alt();
+    if (p.i != regex.length()){ throw new Unsupported("unexpected "+regex.charAt(p.i)); }
+    return res;
+  }
+  private static final class Parser{
+    private final String s;
+    private int i= 0;
+    private Parser(String s){
+      this.s= s;
+      for (int j= 0; j < s.length(); j++){
+        if (Character.isSurrogate(s.charAt(j))){ throw new Unsupported("surrogate"); }
+      }
+    }
+    private boolean more(){ return i < s.length(); }
+    private char peek(){ return s.charAt(i); }
+    private boolean eat(char c){
+      if (!more() || peek() != c){ return false; }
+      i++;
+      return true;
+    }
+    private Re alt(){
+      var res= new ArrayList<Re>();
+      res.add(seq());
+      while (eat('|')){ res.add(seq()); }
+      return res.size() == 1 ? res.getFirst() : new Alt(res);
+    }
+    private Re seq(){
+      var res= new ArrayList<Re>();
+      while (more() && peek() != '|' && peek() != ')'){ res.add(quantified(atom())); }
+      return res.size() == 1 ? res.getFirst() : new Seq(res);
+    }
+    private Re quantified(Re atom){
+      while (more()){
+        int min, max;
+        char c= peek();
+        if (c == '*'){ i++; min= 0; max= -1; }
+        else if (c == '+'){ i++; min= 1; max= -1; }
+        else if (c == '?'){ i++; min= 0; max= 1; }
+        else if (c == '{'){
+          i++;
+          min= number();
+          max= min;
+          if (eat(',')){ max= more() && peek() == '}' ? -1 : number(); }
+          if (!eat('}')){ throw new Unsupported("bad repetition"); }
+        }
+        else { return atom; }
+        if (more() && (peek() == '?' || peek() == '+')){ throw new Unsupported("lazy or possessive quantifier"); }
+        atom= new Repeat(atom, min, max);
+      }
+      return atom;
+    }
+    private int number(){
+      int start= i;
+      while (more() && Character.isDigit(peek())){ i++; }
+      if (start == i || i - start > 4){ throw new Unsupported("bad repetition"); }
+      return Integer.parseInt(s, start, i, 10);
+    }
+    private Re atom(){
+      char c= s.charAt(i++);
+      return switch(c){
+        case '(' -> group();
+        case '[' -> charClass();
+        case '.' -> dot();
+        case '\\' -> escape();
+        case '^', '$' -> throw new Unsupported("anchor");
+        case '*', '+', '?', '{' -> throw new Unsupported("dangling quantifier");
+        default -> literal(c);
+      };
+    }
+    private Re group(){
+      if (eat('?')){
+        boolean named= more() && peek() == '<' && i + 1 < s.length() && Character.isLetter(s.charAt(i + 1));
+        if (named){ i= s.indexOf('>', i) + 1; }
+        else if (!eat(':')){ throw new Unsupported("special group"); }
+      }
+      var res= alt();
+      if (!eat(')')){ throw new Unsupported("unclosed group"); }
+      return res;
+    }
+    private static Chars dot(){ return complement(new int[]{'\n','\n', '\r','\r', 0x85,0x85, 0x2028,0x2029}); }
+    private Chars charClass(){
+      boolean negated= eat('^');
+      if (more() && peek() == ']'){ throw new Unsupported("leading ] in class"); }
+      var acc= new ArrayList<int[]>();
+      while (more() && peek() != ']'){
+        if (peek() == '[' || s.startsWith("&&", i)){ throw new Unsupported("nested class"); }
+        int lo;
+        if (eat('\\')){
+          var e= escape();
+          if (e.ranges().length != 2 || e.ranges()[0] != e.ranges()[1]){ acc.add(e.ranges()); continue; }
+          lo= e.ranges()[0];
+        }
+        else { lo= s.charAt(i++); }
+        boolean range= more() && peek() == '-' && i + 1 < s.length() && s.charAt(i + 1) != ']';
+        if (!range){ acc.add(new int[]{lo, lo}); continue; }
+        i++;
+        int hi;
+        if (eat('\\')){
+          var e= escape();
+          if (e.ranges().length != 2 || e.ranges()[0] != e.ranges()[1]){ throw new Unsupported("bad range"); }
+          hi= e.ranges()[0];
+        }
+        else { hi= s.charAt(i++); }
+        acc.add(new int[]{lo, hi});
+      }
+      if (!eat(']')){ throw new Unsupported("unclosed class"); }
+      var res= union(acc);
+      return negated ? complement(res) : new Chars(res);
+    }
+    private Chars escape(){
+      if (!more()){ throw new Unsupported("trailing backslash"); }
+      char c= s.charAt(i++);
+      return switch(c){
+        case 'd' -> chars('0', '9');
+        case 'D' -> complement(new int[]{'0','9'});
+        case 'w' -> new Chars(wordChars);
+        case 'W' -> complement(wordChars);
+        case 's' -> new Chars(spaceChars);
+        case 'S' -> complement(spaceChars);
+        case 't' -> literal('\t');
+        case 'n' -> literal('\n');
+        case 'r' -> literal('\r');
+        case 'f' -> literal('\f');
+        case 'a' -> literal('\u0007');
+        case 'e' -> literal('\u001B');
+        case 'x' -> literal((char)hex(2));
+        case 'u' -> literal((char)hex(4));
+        default -> {
+          if (Character.isLetterOrDigit(c)){ throw new Unsupported("escape \\"+c); }
+          yield literal(c);
+        }
+      };
+    }
+    private int hex(int n){
+      if (i + n > s.length() || s.charAt(i) == '{'){ throw new Unsupported("bad hex escape"); }
+      int res= Integer.parseInt(s, i, i + n, 16);
+      i += n;
+      return res;
+    }
+    private static final int[] wordChars= {'0','9', 'A','Z', '_','_', 'a','z'};
+    private static final int[] spaceChars= {'\t','\r', ' ',' '};
+  }
+
+  static int[] union(List<int[]> rs){
+    var all= new ArrayList<int[]>();
+    for (var r: rs){
+      for (int j= 0; j < r.length; j += 2){ all.add(new int[]{r[j], r[j + 1]}); }
+    }
+    all.sort((a,b)->Integer.compare(a[0], b[0]));
+    var out= new int[all.size() * 2];
+    int n= 0;
+    for (var r: all){
+      if (n > 0 && r[0] <= out[n - 1] + 1){ out[n - 1]= Math.max(out[n - 1], r[1]); continue; }
+      out[n++]= r[0];
+      out[n++]= r[1];
+    }
+    return Arrays.copyOf(out, n);
+  }
+  static Chars complement(int[] rs){
+    var out= new int[rs.length + 2];
+    int n= 0, from= 0;
+    for (int j= 0; j < rs.length; j += 2){
+      if (rs[j] > from){ out[n++]= from; out[n++]= rs[j] - 1; }
+      from= rs[j + 1] + 1;
+    }
+    if (from <= maxChar){ out[n++]= from; out[n++]= maxChar; }
+    return new Chars(Arrays.copyOf(out, n));
+  }
+
+  // == Order sensitivity ======================================================
+
+  //java.util.regex takes the first match in the order of the choices: alternatives left to right,
+  //one more iteration of a greedy repetition before stopping; the automaton takes the longest match.
+  //They agree if, at every choice, the preferred way can not end a match that a later way extends:
+  //otherwise, as for "a|ab" on "ab", the regex stops at "a". Each way is checked together with
+  //everything that can follow the choice, over-approximated for repetitions, so the check is conservative.
+  static Re firstIsLongest(Re re){
+    sensitive(re, new Seq(List.of()));
+    return re;
+  }
+  private static void sensitive(Re re, Re rest){
+    switch(re){
+      case Chars _ -> {}
+      case Seq q -> {
+        var rs= q.res();
+        for (int j= 0; j < rs.size(); j++){
+          var after= new ArrayList<Re>(rs.subList(j + 1, rs.size()));
+          after.add(rest);
+          sensitive(rs.get(j), new Seq(after));
+        }
+      }
+      case Alt a -> {
+        var rs= a.res();
+        for (int j= 0; j < rs.size(); j++){
+          for (int k= j + 1; k < rs.size(); k++){
+            if (extended(new Seq(List.of(rs.get(j), rest)), new Seq(List.of(rs.get(k), rest)))){ throw new Unsupported("order sensitive alternatives"); }
+          }
+          sensitive(rs.get(j), rest);
+        }
+      }
+      case Repeat r -> {
+        var more= new Seq(List.of(new Repeat(r.re(), 0, -1), rest));
+        if (r.min() != r.max() && extended(new Seq(List.of(r.re(), more)), rest)){ throw new Unsupported("order sensitive repetition"); }
+        sensitive(r.re(), more);
+      }
+    }
+  }
+  ///True if a proper prefix of some string of 'longer' is a string of 'first':
+  ///a product of the two automata, first followed by one or more chars, searched for a common accepting state.
+  static boolean extended(Re first, Re longer){
+    var a= new RegexNfa();
+    int startA= a.newState();
+    a.add(startA, new Seq(List.of(first, new Repeat(chars(0, maxChar), 1, -1))), 0);
+    var b= new RegexNfa();
+    int startB= b.newState();
+    b.add(startB, longer, 0);
+    var seen= new HashSet<Long>();
+    var todo= new ArrayDeque<int[]>();
+    todo.push(new int[]{startA, startB});
+    while (!todo.isEmpty()){
+      var p= todo.pop();
+      int sa= p[0], sb= p[1];
+      if (!seen.add(((long)sa << 32) | sb)){ continue; }
+      if (a.accept.get(sa) >= 0 && b.accept.get(sb) >= 0){ return true; }
+      for (int e: a.eps.get(sa)){ todo.push(new int[]{e, sb}); }
+      for (int e: b.eps.get(sb)){ todo.push(new int[]{sa, e}); }
+      var ra= a.ranges.get(sa);
+      var rb= b.ranges.get(sb);
+      if (ra != null && rb != null && overlap(ra, rb)){ todo.push(new int[]{a.target.get(sa), b.target.get(sb)}); }
+    }
+    return false;
+  }
+  private static boolean overlap(int[] ra, int[] rb){
+    int i= 0, j= 0;
+    while (i < ra.length && j < rb.length){
+      if (ra[i + 1] < rb[j]){ i += 2; continue; }
+      if (rb[j + 1] < ra[i]){ j += 2; continue; }
+      return true;
+    }
+    return false;
+  }
+
+  // == Thompson construction ==================================================
+
+  final List<int[]> ranges= new ArrayList<>();//per state, null if no char transition
+  final List<Integer> target= new ArrayList<>();
+  final List<int[]> eps= new ArrayList<>();
+  final List<Integer> accept= new ArrayList<>();//kind index, or -1
+  int states(){ return ranges.size(); }
+  int newState(){
+    ranges.add(null); target.add(-1); eps.add(new int[0]); accept.add(-1);
+    return ranges.size() - 1;
+  }
+  void epsilon(int from, int to){
+    var old= eps.get(from);
+    var res= Arrays.copyOf(old, old.length + 1);
+    res[old.length]= to;
+    eps.set(from, res);
+  }
+  ///Adds re as an alternative starting from 'start'; its accepting state reports 'kind'.
+  void add(int start, Re re, int kind){
+    int end= newState();
+    accept.set(end, kind);
+    build(re, start, end);
+  }
+  private void build(Re re, int from, int to){
+    switch(re){
+      case Chars c -> { int s= newState(); epsilon(from, s); ranges.set(s, c.ranges()); target.set(s, to); }
+      case Seq q -> {
+        int cur= from;
+        for (var r: q.res()){ int next= newState(); build(r, cur, next); cur= next; }
+        epsilon(cur, to);
+      }
+      case Alt a -> { for (var r: a.res()){ build(r, from, to); } }
+      case Repeat r -> {
+        int cur= from;
+        for (int j= 0; j < r.min(); j++){ int next= newState(); build(r.re(), cur, next); cur= next; }
+        if (r.max() < 0){
+          int loop= newState();
+          epsilon(cur, loop);
+          int back= newState();
+          build(r.re(), loop, back);
+          epsilon(back, loop);
+          epsilon(loop, to);
+          return;
+        }
+        for (int j= r.min(); j < r.max(); j++){
+          epsilon(cur, to);
+          int next= newState();
+          build(r.re(), cur, next);
+          cur= next;
+        }
+        epsilon(cur, to);
+      }
+    }
+  }
+}
@@ -0,0 +1,186 @@
+package metaParser;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import tools.Fs;
+import tools.JavacTool;
+import utils.Bug;
+
+import static offensiveUtils.Require.*;
+
+///Ahead of time version of TokenScanner.fused: emits the DFA as a Java class made of plain switches and char tests.
+///The class can be compiled and loaded in process (compile), or compiled once and shipped with the application (load).
+///The generated class records a fingerprint of the kinds, so that a stale scanner is refused: regenerate it when the kinds change.
+public final class ScannerGenerator{
+  private ScannerGenerator(){}
+  private static final int statesPerMethod= 512;
+
+  ///Generates, compiles with JavacTool and loads the scanner. workDir receives the sources and the classes.
+  public static TokenScanner compile(String className, List<? extends TokenKind> kinds, Path workDir){
+    var src= workDir.resolve("src");
+    var classes= workDir.resolve("classes");
+    Fs.cleanDir(src);
+    Fs.writeUtf8(src.resolve(className.replace('.', '/') + ".java"), source(className, kinds));
+    JavacTool.javac(List.of(src), classes);
+    URL url= Fs.of(()->{
+      try{ return classes.toUri().toURL(); }
+      catch(MalformedURLException e){ throw new IOException(e); }
+    });
+    var loader= new URLClassLoader(new URL[]{url}, TokenScanner.class.getClassLoader());
+    return load(loader, className, kinds);
+  }
+  ///Loads a scanner compiled in advance and available to the context class loader.
+  public static TokenScanner load(String className, List<? extends TokenKind> kinds){
+    return load(Thread.currentThread().getContextClassLoader(), className, kinds);
+  }
+  private static TokenScanner load(ClassLoader loader, String className, List<? extends TokenKind> kinds){
+    try{
+      var c= Class.forName(className, true, loader);
+      var found= c.getField("fingerprint").get(null);
+      check(fingerprint(kinds).equals(found), "Scanner "+className+" was generated for different token kinds: regenerate it");
+      return (TokenScanner)c.getConstructor().newInstance();
+    }
+    catch(ReflectiveOperationException e){ throw Bug.of(e); }
+  }
+  ///Changes whenever the kinds list, their matchers or their priorities change.
+  ///Only the built in matchers are described by content; any other matcher is described by its index,
+  ///since its class name and toString may change from run to run (as for lambdas).
+  public static String fingerprint(List<? extends TokenKind> kinds){
+    var desc= IntStream.range(0, kinds.size())
+      .mapToObj(k->k+" "+kinds.get(k).priority()+" "+describe(kinds.get(k).matcher()))
+      .collect(Collectors.joining("\n"));
+    try{
+      var hash= MessageDigest.getInstance("SHA-256").digest(desc.getBytes(StandardCharsets.UTF_8));
+      return HexFormat.of().formatHex(hash, 0, 16);
+    }
+    catch(NoSuchAlgorithmException e){ throw Bug.of(e); }
+  }
+  private static String describe(TokenMatch m){
+    return switch(m){
+      case TokenMatch.Regex r -> "regex "+r.pattern().flags()+" "+r.regex();
+      case TokenMatch.Literal l -> l.toString();
+      case TokenMatch.Keywords k -> k.toString();
+      case TokenMatch.CharRun c -> c.toString();
+      case TokenMatch.Delimited d -> d.toString();
+      default -> "custom";
+    };
+  }
+  ///Java source of a scanner equivalent to TokenScanner.fused(kinds).
+  public static String source(String className, List<? extends TokenKind> kinds){
+    int dot= className.lastIndexOf('.');
+    check(dot > 0, "Expected a fully qualified class name: "+className);
+    return new Emitter(FusedScanner.of(kinds), kinds).of(className.substring(0, dot), className.substring(dot + 1), fingerprint(kinds));
+  }
+
+  private record Emitter(FusedScanner dfa, List<? extends TokenKind> kinds){
+    String of(String pkg, String name, String fingerprint){
+      var b= new StringBuilder();
+      b.append("// Generated by metaParser.ScannerGenerator: do not edit, regenerate when the token kinds change.\n");
+      b.append("package ").append(pkg).append(";\n\n");
+      b.append("import metaParser.TokenScanner;\n\n");
+      b.append("public final class ").append(name).append(" implements TokenScanner{\n");
+      b.append("  public static final String fingerprint= \"").append(fingerprint).append("\";\n");
+      b.append("  private static final boolean[] handles= {")
+        .append(IntStream.range(0, kinds.size()).mapToObj(k->String.valueOf(dfa.handles(k))).collect(Collectors.joining(", ")))
+        .append("};\n");
+      b.append("""
+          @Override public boolean handles(int kind){ return kind < handles.length && handles[kind]; }
+          @Override public long scan(CharSequence in, int start){
+            int state= 0, bestEnd= -1, bestKind= -1, n= in.length();
+            for (int i= start; i < n; i++){
+              char c= in.charAt(i);
+              if (Character.isSurrogate(c)){ return undecided; }
+              state= step(state, c);
+              if (state < 0){ break; }
+              int k= accept(state);
+              if (k >= 0){ bestEnd= i + 1; bestKind= k; }
+            }
+            return bestKind < 0 ? noMatch : TokenScanner.result(bestKind, bestEnd);
+          }
+        """);
+      chunked(b, "step", "int state, char c", "state, c");
+      chunked(b, "accept", "int state", "state");
+      for (int chunk= 0; chunk * statesPerMethod < dfa.states(); chunk++){
+        stepChunk(b, chunk);
+        acceptChunk(b, chunk);
+      }
+      for (int s= 0; s < dfa.states(); s++){ state(b, s); }
+      return b.append("}\n").toString();
+    }
+    void chunked(StringBuilder b, String name, String params, String args){
+      b.append("  private static int ").append(name).append("(").append(params).append("){\n");
+      b.append("    return switch(state / ").append(statesPerMethod).append("){\n");
+      for (int chunk= 0; chunk * statesPerMethod < dfa.states(); chunk++){
+        b.append("      case ").append(chunk).append(" -> ").append(name).append(chunk).append("(").append(args).append(");\n");
+      }
+      b.append("      default -> -1;\n    };\n  }\n");
+    }
+    void stepChunk(StringBuilder b, int chunk){
+      b.append("  private static int step").append(chunk).append("(int state, char c){\n");
+      b.append("    return switch(state){\n");
+      for (int s= chunk * statesPerMethod; s < Math.min(dfa.states(), (chunk + 1) * statesPerMethod); s++){
+        if (transitions(s).isEmpty()){ continue; }
+        b.append("      case ").append(s).append(" -> s").append(s).append("(c);\n");
+      }
+      b.append("      default -> -1;\n    };\n  }\n");
+    }
+    void acceptChunk(StringBuilder b, int chunk){
+      var byKind= new LinkedHashMap<Integer,List<Integer>>();
+      for (int s= chunk * statesPerMethod; s < Math.min(dfa.states(), (chunk + 1) * statesPerMethod); s++){
+        if (dfa.accept[s] >= 0){ byKind.computeIfAbsent(dfa.accept[s], _->new ArrayList<>()).add(s); }
+      }
+      b.append("  private static int accept").append(chunk).append("(int state){\n");
+      b.append("    return switch(state){\n");
+      byKind.forEach((k,ss)->b.append("      case ")
+        .append(ss.stream().map(String::valueOf).collect(Collectors.joining(", ")))
+        .append(" -> ").append(k).append(";\n"));
+      b.append("      default -> -1;\n    };\n  }\n");
+    }
+    ///Target state to merged [lo,hi] char ranges, in order of first char.
+    LinkedHashMap<Integer,List<int[]>> transitions(int s){
+      var res= new LinkedHashMap<Integer,List<int[]>>();
+      for (int c= 0; c < dfa.classes; c++){
+        int t= dfa.next[s * dfa.classes + c];
+        if (t < 0){ continue; }
+        int lo= dfa.bounds[c];
+        int hi= c + 1 < dfa.classes ? dfa.bounds[c + 1] - 1 : RegexNfa.maxChar;
+        var rs= res.computeIfAbsent(t, _->new ArrayList<>());
+        if (!rs.isEmpty() && rs.getLast()[1] + 1 == lo){ rs.getLast()[1]= hi; }
+        else { rs.add(new int[]{lo, hi}); }
+      }
+      return res;
+    }
+    void state(StringBuilder b, int s){
+      var ts= transitions(s);
+      if (ts.isEmpty()){ return; }
+      b.append("  private static int s").append(s).append("(char c){\n");
+      ts.forEach((t,rs)->b.append("    if (")
+        .append(rs.stream().map(Emitter::test).collect(Collectors.joining(" || ")))
+        .append("){ return ").append(t).append("; }\n"));
+      b.append("    return -1;\n  }\n");
+    }
+    static String test(int[] r){
+      if (r[0] == r[1]){ return "c == "+lit(r[0]); }
+      if (r[0] == 0){ return "c <= "+lit(r[1]); }
+      if (r[1] == RegexNfa.maxChar){ return "c >= "+lit(r[0]); }
+      return "(c >= "+lit(r[0])+" && c <= "+lit(r[1])+")";
+    }
+    static String lit(int c){
+      boolean plain= c >= 32 && c < 127 && c != '\'' && c != '\\';
+      return plain ? "'"+(char)c+"'" : "0x"+Integer.toHexString(c);
+    }
+  }
+}
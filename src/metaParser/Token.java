@@ -16,15 +16,16 @@ public interface Token<T extends Token<T,TK>, TK extends TokenKind> {
     return Stream.of(kinds).anyMatch(this::is);
   }
   default boolean is(TK k){ return kind().equals(k); }
+  ///Line of the position right after the content.
+  ///Tokens made through the 7 argument MetaTokenizer.make can store it; by default it is recomputed from the content.
+  default int endLine(){ return TokenEnd.line(TokenEnd.walk(this)); }
+  ///Column of the position right after the content, see endLine.
+  default int endColumn(){ return TokenEnd.column(TokenEnd.walk(this)); }
   default Span span(URI fileName){ return Token.makeSpan(fileName,this,this); }
   static Span makeSpan(URI fileName, Token<?,?> first, Token<?,?> last){
-    int l = last.line();
-    int c = last.column();
-    for (int i = 0; i < last.content().length();) {
-      int cp= last.content().codePointAt(i);
-      i += Character.charCount(cp);
-      if (cp == '\n'){ l += 1; c = 1; } else { c += 1; }
-    }
+    long end= TokenEnd.of(last);
+    int l = TokenEnd.line(end);
+    int c = TokenEnd.column(end);
     if (l == last.line()){ return new Span(fileName,first.line(),first.column(),l,Math.max(first.column(), c - 1)); }
     return new Span(fileName, first.line(),first.column(),l,Math.max(1,c - 1));
   }
@@ -0,0 +1,35 @@
+package metaParser;
+
+import utils.Bug;
+
+//package private: the position right after a token, as line<<32|column, found with a single walk of the content.
+//Token types that override endLine/endColumn (storing the end given to MetaTokenizer.make) are asked instead;
+//which ones do is found once per class.
+final class TokenEnd{
+  private TokenEnd(){}
+  private static final ClassValue<Boolean> stored= new ClassValue<>(){
+    @Override protected Boolean computeValue(Class<?> c){ return overrides(c, "endLine") || overrides(c, "endColumn"); }
+  };
+  private static boolean overrides(Class<?> c, String name){
+    try{ return c.getMethod(name).getDeclaringClass() != Token.class; }
+    catch(NoSuchMethodException e){ throw Bug.of(e); }
+  }
+  static long of(Token<?,?> t){
+    if (stored.get(t.getClass())){ return pack(t.endLine(), t.endColumn()); }
+    return walk(t);
+  }
+  static long walk(Token<?,?> t){
+    int l= t.line();
+    int c= t.column();
+    var s= t.content();
+    for (int i = 0; i < s.length();) {
+      int cp= s.codePointAt(i);
+      i += Character.charCount(cp);
+      if (cp == '\n'){ l += 1; c = 1; } else { c += 1; }
+    }
+    return pack(l, c);
+  }
+  static long pack(int line, int column){ return (long)line << 32 | column; }
+  static int line(long end){ return (int)(end >>> 32); }
+  static int column(long end){ return (int)end; }
+}
@@ -0,0 +1,80 @@
+package metaParser;
+
+import static offensiveUtils.Require.*;
+
+///A concurrent table of token contents, so that equal token texts share one String.
+///Give the same interner to the MetaTokenizers of all the files of a build, with .interner(..):
+///identifiers and keywords are then stored once, and equal contents are usually identical Strings.
+///Lookups hash the source slice directly: no String is made for contents already in the table.
+///The table is split in segments, each guarded by its own lock; contents are never removed.
+public final class TokenInterner{
+  private static final int segmentBits= 6;
+  private final Segment[] segments= new Segment[1 << segmentBits];
+  private final int maxLength;
+  ///Interns contents of up to 32 chars: longer ones, as strings and comments, rarely repeat.
+  public TokenInterner(){ this(32); }
+  public TokenInterner(int maxLength){
+    check(maxLength >= 0, "maxLength must not be negative: "+maxLength);
+    this.maxLength= maxLength;
+    for (int i= 0; i < segments.length; i++){ segments[i]= new Segment(); }
+  }
+  ///The content of src from start to end, as the String already in the table if any.
+  public String intern(CharSequence src, int start, int end){
+    if (end - start > maxLength){ return src.subSequence(start, end).toString(); }
+    int h= 0;
+    for (int i= start; i < end; i++){ h= 31 * h + src.charAt(i); }
+    return segment(h).intern(h, src, start, end);
+  }
+  public String intern(String s){ return intern(s, 0, s.length()); }
+  ///The number of distinct contents in the table.
+  public int size(){
+    int res= 0;
+    for (var s: segments){ res += s.size(); }
+    return res;
+  }
+  private Segment segment(int h){
+    int spread= h ^ (h >>> 16);
+    return segments[spread & (segments.length - 1)];
+  }
+  //open addressing by linear probing, with the hash of each entry kept next to it
+  private static final class Segment{
+    private String[] table= new String[16];
+    private int[] hashes= new int[16];
+    private int size;
+    synchronized int size(){ return size; }
+    synchronized String intern(int h, CharSequence src, int start, int end){
+      int mask= table.length - 1;
+      int i= (h >>> segmentBits) & mask;
+      for (var s= table[i]; s != null; s= table[i]){
+        if (hashes[i] == h && sameChars(s, src, start, end)){ return s; }
+        i= (i + 1) & mask;
+      }
+      var res= src.subSequence(start, end).toString();
+      table[i]= res;
+      hashes[i]= h;
+      if (++size * 2 > table.length){ grow(); }
+      return res;
+    }
+    private static boolean sameChars(String s, CharSequence src, int start, int end){
+      if (s.length() != end - start){ return false; }
+      for (int i= 0; i < s.length(); i++){
+        if (s.charAt(i) != src.charAt(start + i)){ return false; }
+      }
+      return true;
+    }
+    private void grow(){
+      var oldTable= table;
+      var oldHashes= hashes;
+      table= new String[oldTable.length * 2];
+      hashes= new int[oldTable.length * 2];
+      int mask= table.length - 1;
+      for (int j= 0; j < oldTable.length; j++){
+        if (oldTable[j] == null){ continue; }
+        int i= (oldHashes[j] >>> segmentBits) & mask;
+        while (table[i] != null){ i= (i + 1) & mask; }
+        table[i]= oldTable[j];
+        hashes[i]= oldHashes[j];
+      }
+    }
+  }
+}
@@ -1,21 +1,301 @@
 package metaParser;
 
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
 import java.util.regex.Pattern;
 
+import static offensiveUtils.Require.*;
+
 public interface TokenMatch{
   Optional<String> apply(String input, int start);
-  static TokenMatch fromRegex(String regex){
-    var r= Pattern.compile(regex);
-    return new TokenMatch(){
-      public String toString(){ return regex; }
-      public Optional<String> apply(String input, int start){
-        var matcher = r.matcher(input);
-        matcher.useTransparentBounds(true);
-        matcher.region(start, input.length());
-        if ( !matcher.lookingAt()){ return Optional.empty(); }
-        return Optional.of(input.substring(start, matcher.end()));
-      }
-    };
+  ///Conservative first character filter: returns false only if no match can start with c.
+  ///MetaTokenizer uses it to index the kinds by their first character.
+  default boolean canStartWith(char c){ return true; }
+  ///Allocation free matching: a cursor returns the end of the match, or a negative number for no match.
+  ///Each tokenizer makes its own cursors, so a cursor can keep reusable state.
+  ///The default cursor delegates to apply; matchers that can do better should override it.
+  default Cursor cursor(){ return (input, start)->apply(input.toString(), start).map(s->start + s.length()).orElse(-1); }
+  interface Cursor{ int end(CharSequence input, int start); }
+  static TokenMatch fromRegex(String regex){ return new Regex(regex); }
+  ///Exactly text.
+  static TokenMatch literal(String text){ return new Literal(text); }
+  ///The longest of the words matching at the start position.
+  static TokenMatch keywords(String... words){ return new Keywords(List.of(words)); }
+  ///A char in first followed by any number of chars in rest.
+  ///The sets use the syntax of the body of a regex class, for example charRun("a-zA-Z_", "a-zA-Z_0-9").
+  static TokenMatch charRun(String first, String rest){ return new CharRun(first, rest); }
+  ///From open up to the first close, both included.
+  static TokenMatch delimited(String open, String close){ return new Delimited(open, close, -1); }
+  ///From open up to the first close that is not preceded by the escape char, both included.
+  static TokenMatch delimited(String open, String close, char escape){ return new Delimited(open, close, escape); }
+  private static Optional<String> slice(String input, int start, int end){
+    return end < 0 ? Optional.empty() : Optional.of(input.substring(start, end));
+  }
+
+  ///The TokenMatch made by fromRegex.
+  ///It is recognized by TokenScanner.fused, that can compile it together with the other kinds.
+  final class Regex implements TokenMatch{
+    private final String regex;
+    private final Pattern pattern;
+    private final boolean[] starts;
+    private Regex(String regex){
+      this.regex= regex;
+      this.pattern= Pattern.compile(regex);
+      this.starts= firstChars(pattern);
+    }
+    public String regex(){ return regex; }
+    public Pattern pattern(){ return pattern; }
+    @Override public String toString(){ return regex; }
+    @Override public Optional<String> apply(String input, int start){
+      var matcher = pattern.matcher(input);
+      matcher.useTransparentBounds(true);
+      matcher.region(start, input.length());
+      if ( !matcher.lookingAt()){ return Optional.empty(); }
+      return Optional.of(input.substring(start, matcher.end()));
+    }
+    @Override public boolean canStartWith(char c){ return c >= starts.length || starts[c]; }
+    ///Conservative check for catastrophic backtracking: true if a repeated group contains a repetition,
+    ///as in (a+)+ or (x*y)*. Possessive outer repetitions, as in (a+)++, are not flagged.
+    ///Patterns flagged here can take exponential time on some inputs: see MetaTokenizer.matchBudget.
+    public boolean risky(){ return risky(regex); }
+    private static boolean risky(String r){
+      var stack= new ArrayDeque<boolean[]>();//per open group: contains a repetition
+      boolean[] top= {false};
+      int n= r.length();
+      for (int i= 0; i < n; i++){
+        char c= r.charAt(i);
+        switch (c){
+          case '\\' -> {
+            if (i + 1 < n && r.charAt(i + 1) == 'Q'){ int e= r.indexOf("\\E", i + 2); i= e < 0 ? n : e + 1; }
+            else { i++; }
+          }
+          case '[' -> i= classEnd(r, i);
+          case '(' -> {
+            stack.push(top);
+            top= new boolean[]{false};
+            if (i + 1 < n && r.charAt(i + 1) == '?'){
+              i++;
+              while (i + 1 < n && ":=!>)".indexOf(r.charAt(i + 1)) < 0){ i++; }
+              if (i + 1 < n && r.charAt(i + 1) != ')'){ i++; }
+            }
+          }
+          case ')' -> {
+            boolean inner= top[0];
+            top= stack.isEmpty() ? new boolean[]{false} : stack.pop();
+            int q= repetitionEnd(r, i + 1);
+            if (q < 0){ top[0] |= inner; continue; }
+            boolean possessive= q < n && r.charAt(q) == '+';
+            if (inner && !possessive){ return true; }
+            top[0]= true;
+            i= q - 1;
+          }
+          default -> { if (repetitionEnd(r, i) >= 0){ top[0]= true; i= repetitionEnd(r, i) - 1; } }
+        }
+      }
+      return false;
+    }
+    ///If a repetition of unbounded or more than one count starts at i, the index after it; otherwise -1.
+    private static int repetitionEnd(String r, int i){
+      if (i >= r.length()){ return -1; }
+      char c= r.charAt(i);
+      if (c == '*' || c == '+'){ return i + 1; }
+      if (c != '{'){ return -1; }
+      int e= r.indexOf('}', i);
+      if (e < 0){ return -1; }
+      var body= r.substring(i + 1, e).split(",", -1);
+      boolean many= body.length == 2 && (body[1].isEmpty() || !body[1].equals("0") && !body[1].equals("1"))
+        || body.length == 1 && !body[0].equals("0") && !body[0].equals("1");
+      return many ? e + 1 : -1;
+    }
+    private static int classEnd(String r, int i){
+      int depth= 0;
+      for (; i < r.length(); i++){
+        char c= r.charAt(i);
+        if (c == '\\'){ i++; continue; }
+        if (c == '['){ depth++; }
+        if (c == ']' && --depth == 0){ return i; }
+      }
+      return i;
+    }
+    ///Reuses a single Matcher, resetting it only when the input changes.
+    @Override public Cursor cursor(){
+      var m= pattern.matcher("");
+      m.useTransparentBounds(true);
+      return new Cursor(){
+        CharSequence text= "";
+        @Override public int end(CharSequence input, int start){
+          if (text != input){ m.reset(input); text= input; }
+          m.region(start, input.length());
+          return m.lookingAt() ? m.end() : -1;
+        }
+      };
+    }
+    ///Probes the regex on every single ASCII char: if it neither matches nor asks for more input, no match can start there.
+    ///Patterns that can look behind the start position are left unfiltered.
+    private static boolean[] firstChars(Pattern r){
+      var res= new boolean[128];
+      var src= r.pattern();
+      boolean looksBehind= src.contains("(?<") || src.contains("\\b") || src.contains("\\B") || src.contains("\\G");
+      for (char c= 0; c < res.length; c++){
+        if (looksBehind){ res[c]= true; continue; }
+        var m= r.matcher(String.valueOf(c));
+        res[c]= m.lookingAt() || m.hitEnd();
+      }
+      return res;
+    }
+  }
+
+  final class Literal implements TokenMatch{
+    private final String text;
+    private Literal(String text){
+      check(!text.isEmpty(), "TokenMatch.literal: empty text");
+      this.text= text;
+    }
+    public String text(){ return text; }
+    @Override public String toString(){ return "literal("+text+")"; }
+    @Override public Optional<String> apply(String input, int start){ return slice(input, start, end(input, start)); }
+    @Override public Cursor cursor(){ return this::end; }
+    @Override public boolean canStartWith(char c){ return text.charAt(0) == c; }
+    int end(CharSequence input, int start){
+      int n= text.length();
+      if (input.length() - start < n){ return -1; }
+      for (int i= 0; i < n; i++){ if (input.charAt(start + i) != text.charAt(i)){ return -1; } }
+      return start + n;
+    }
+  }
+  final class Keywords implements TokenMatch{
+    private final List<String> words;
+    private final Trie root= new Trie();
+    private Keywords(List<String> words){
+      check(!words.isEmpty(), "TokenMatch.keywords: no words");
+      this.words= words;
+      for (var w: words){
+        check(!w.isEmpty(), "TokenMatch.keywords: empty word");
+        var t= root;
+        for (int i= 0; i < w.length(); i++){ t= t.child(w.charAt(i), true); }
+        t.word= true;
+      }
+    }
+    private static final class Trie{
+      char[] keys= new char[0];
+      Trie[] kids= new Trie[0];
+      boolean word;
+      Trie child(char c, boolean add){
+        for (int i= 0; i < keys.length; i++){ if (keys[i] == c){ return kids[i]; } }
+        if (!add){ return null; }
+        keys= Arrays.copyOf(keys, keys.length + 1);
+        kids= Arrays.copyOf(kids, kids.length + 1);
+        keys[keys.length - 1]= c;
+        return kids[kids.length - 1]= new Trie();
+      }
+    }
+    public List<String> words(){ return words; }
+    @Override public String toString(){ return "keywords"+words; }
+    @Override public Optional<String> apply(String input, int start){ return slice(input, start, end(input, start)); }
+    @Override public Cursor cursor(){ return this::end; }
+    @Override public boolean canStartWith(char c){ return root.child(c, false) != null; }
+    int end(CharSequence input, int start){
+      int res= -1;
+      var t= root;
+      for (int i= start; i < input.length(); i++){
+        t= t.child(input.charAt(i), false);
+        if (t == null){ break; }
+        if (t.word){ res= i + 1; }
+      }
+      return res;
+    }
+  }
+  final class CharRun implements TokenMatch{
+    private final String first;
+    private final String rest;
+    private final int[] firstRanges;
+    private final int[] restRanges;
+    private final boolean[] asciiFirst;
+    private final boolean[] asciiRest;
+    private CharRun(String first, String rest){
+      this.first= first;
+      this.rest= rest;
+      this.firstRanges= ranges(first);
+      this.restRanges= ranges(rest);
+      this.asciiFirst= ascii(firstRanges);
+      this.asciiRest= ascii(restRanges);
+    }
+    private static int[] ranges(String set){
+      RegexNfa.Re re;
+      try{ re= RegexNfa.parse("["+set+"]"); }
+      catch(RegexNfa.Unsupported _){ re= null; }
+      check(re instanceof RegexNfa.Chars, "TokenMatch.charRun: not a plain char set: "+set);
+      return ((RegexNfa.Chars)re).ranges();
+    }
+    private static boolean[] ascii(int[] ranges){
+      var res= new boolean[128];
+      for (char c= 0; c < res.length; c++){ res[c]= contains(ranges, c); }
+      return res;
+    }
+    private static boolean contains(int[] ranges, char c){
+      for (int i= 0; i < ranges.length; i += 2){ if (ranges[i] <= c && c <= ranges[i + 1]){ return true; } }
+      return false;
+    }
+    public String first(){ return first; }
+    public String rest(){ return rest; }
+    int[] firstRanges(){ return firstRanges; }
+    int[] restRanges(){ return restRanges; }
+    @Override public String toString(){ return "charRun("+first+", "+rest+")"; }
+    @Override public Optional<String> apply(String input, int start){ return slice(input, start, end(input, start)); }
+    @Override public Cursor cursor(){ return this::end; }
+    @Override public boolean canStartWith(char c){ return c < 128 ? asciiFirst[c] : contains(firstRanges, c); }
+    int end(CharSequence input, int start){
+      int n= input.length();
+      if (start >= n || !canStartWith(input.charAt(start))){ return -1; }
+      int i= start + 1;
+      while (i < n){
+        char c= input.charAt(i);
+        if (!(c < 128 ? asciiRest[c] : contains(restRanges, c))){ break; }
+        i++;
+      }
+      return i;
+    }
+  }
+  final class Delimited implements TokenMatch{
+    private final Literal open;
+    private final String close;
+    private final int escape;
+    private Delimited(String open, String close, int escape){
+      check(!close.isEmpty(), "TokenMatch.delimited: empty close");
+      check(escape != close.charAt(0), "TokenMatch.delimited: the escape char can not start the close");
+      this.open= new Literal(open);
+      this.close= close;
+      this.escape= escape;
+    }
+    public String open(){ return open.text(); }
+    public String close(){ return close; }
+    ///The escape char, or -1 for none
+    public int escape(){ return escape; }
+    @Override public String toString(){
+      return "delimited("+open.text()+", "+close+(escape < 0 ? "" : ", "+(char)escape)+")";
+    }
+    @Override public Optional<String> apply(String input, int start){ return slice(input, start, end(input, start)); }
+    @Override public Cursor cursor(){ return this::end; }
+    @Override public boolean canStartWith(char c){ return open.canStartWith(c); }
+    int end(CharSequence input, int start){
+      int i= open.end(input, start);
+      if (i < 0){ return -1; }
+      int n= input.length();
+      char c0= close.charAt(0);
+      while (i < n){
+        char c= input.charAt(i);
+        if (c == escape){ i += 2; continue; }
+        if (c == c0 && closesAt(input, i)){ return i + close.length(); }
+        i++;
+      }
+      return -1;//unterminated
+    }
+    private boolean closesAt(CharSequence input, int i){
+      if (input.length() - i < close.length()){ return false; }
+      for (int j= 1; j < close.length(); j++){ if (input.charAt(i + j) != close.charAt(j)){ return false; } }
+      return true;
+    }
   }
-}
\ No newline at end of file
+}
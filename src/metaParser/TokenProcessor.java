@@ -1,8 +1,13 @@
 package metaParser;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Objects;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 public interface TokenProcessor<
@@ -14,6 +19,26 @@ public interface TokenProcessor<
     Err extends ErrFactory<T,TK,E,Tokenizer,Parser,Err>
   >{
   Stream<T> process(int index, T token, Tokenizer tokenizer);
+  ///Push form of process: the resulting tokens go to out, in order.
+  default void process(int index, T token, Tokenizer tokenizer, Consumer<? super T> out){
+    Objects.requireNonNull(process(index, token, tokenizer), "TokenProcessors must not return null").forEach(out);
+  }
+  ///A processor written in push form: no Stream is made per token.
+  interface Sink<
+      T extends Token<T,TK>,
+      TK extends TokenKind,
+      E extends RuntimeException & HasFrames<E>,
+      Tokenizer extends MetaTokenizer<T,TK,E,Tokenizer,Parser,Err>,
+      Parser extends MetaParser<T,TK,E,Tokenizer,Parser,Err>,
+      Err extends ErrFactory<T,TK,E,Tokenizer,Parser,Err>
+    > extends TokenProcessor<T,TK,E,Tokenizer,Parser,Err>{
+    @Override void process(int index, T token, Tokenizer tokenizer, Consumer<? super T> out);
+    @Override default Stream<T> process(int index, T token, Tokenizer tokenizer){
+      var res= new ArrayList<T>(1);
+      process(index, token, tokenizer, res::add);
+      return res.stream();
+    }
+  }
   class Map<
       T extends Token<T,TK>,
       TK extends TokenKind,
@@ -25,16 +50,33 @@ public interface TokenProcessor<
     public Map<T,TK,E,Tokenizer,Parser,Err> put(TK kind,TokenProcessor<T,TK,E,Tokenizer,Parser,Err> p){
       assert !map.containsKey(kind): "token kind "+kind+" already in the processMap";
       map.put(kind, p);
+      byOrdinal= null;
+      byMap= false;
+      allStateless= false;
+      return this;
+    }
+    ///As put, declaring that p only depends on its arguments and keeps no state between calls:
+    ///if all the processors are stateless, parallel(true) can process the tokens in parallel.
+    public Map<T,TK,E,Tokenizer,Parser,Err> putStateless(TK kind,TokenProcessor<T,TK,E,Tokenizer,Parser,Err> p){
+      boolean prev= allStateless;
+      put(kind, p);
+      allStateless= prev;
       return this;
     }
     public Map<T,TK,E,Tokenizer,Parser,Err> putStr(TK kind, Function<String,E> f, String str, String frame){
-      return put(kind, (_,t,tz) -> {
+      return putStateless(kind, (_,t,tz) -> {
         String head= t.content().isBlank()
           ? "Unrecognized text."
           : "Unrecognized text " + Message.displayString(t.content()) + ".";
         throw f.apply(head+"\n"+str).addFrame(frame,t.span(tz.fileName())); 
         });
     }
+    ///Opt in to parallel processing; only used when all the processors were added with putStateless.
+    ///The output order is the same as sequentially, and so is the error reported: the one of the first failing token.
+    public Map<T,TK,E,Tokenizer,Parser,Err> parallel(boolean parallel){
+      this.parallel= parallel;
+      return this;
+    }
 
     private final TokenProcessor<T,TK,E,Tokenizer,Parser,Err> identity= (_,t,_)->Stream.of(t);
     public Stream<T> process(int i, T t, Tokenizer tk){
@@ -42,6 +84,77 @@ public interface TokenProcessor<
           map.getOrDefault(t.kind(), identity).process(i, t, tk),
           "TokenProcessors must not return null");
     }
+    //package private: the whole postTokenize pass
+    List<T> processAll(List<T> tokens, Tokenizer tk){
+      if (map.isEmpty()){ return tokens; }
+      var table= byOrdinal();
+      if (!parallel || !allStateless || tokens.size() < 2 * chunkSize){
+        var res= new ArrayList<T>(tokens.size());
+        processRange(table, tokens, 0, tokens.size(), tk, res);
+        return Collections.unmodifiableList(res);
+      }
+      int chunks= (tokens.size() + chunkSize - 1) / chunkSize;
+      //an error stops its own chunk only: rethrowing the first one in order gives the sequential error
+      record Part<T>(List<T> tokens, RuntimeException error){}
+      List<Part<T>> parts= IntStream.range(0, chunks).parallel().mapToObj(c->{
+        int from= c * chunkSize;
+        var res= new ArrayList<T>(chunkSize);
+        try{ processRange(table, tokens, from, Math.min(tokens.size(), from + chunkSize), tk, res); }
+        catch(RuntimeException e){ return new Part<T>(res, e); }
+        return new Part<T>(res, null);
+      }).toList();
+      var res= new ArrayList<T>(tokens.size());
+      for (var p: parts){
+        if (p.error() != null){ throw p.error(); }
+        res.addAll(p.tokens());
+      }
+      return Collections.unmodifiableList(res);
+    }
+    //package private: a single token, for the fused pass of MetaTokenizer.run
+    void processOne(int i, T t, Tokenizer tk, Consumer<T> out){
+      var p= map.isEmpty() ? null : processor(byOrdinal(), t.kind());
+      if (p == null){ out.accept(t); }
+      else { p.process(i, t, tk, out); }
+    }
+    //package private: computes the dispatch table now, so that threads started afterwards only read the map
+    void prepare(){ byOrdinal(); }
+    private void processRange(TokenProcessor<T,TK,E,Tokenizer,Parser,Err>[] table, List<T> tokens, int from, int to, Tokenizer tk, ArrayList<T> res){
+      Consumer<T> out= res::add;
+      var cancellation= tk.cancellation();
+      for (int i= from; i < to; i++){
+        cancellation.poll(i);
+        T t= tokens.get(i);
+        var p= processor(table, t.kind());
+        if (p == null){ res.add(t); }
+        else { p.process(i, t, tk, out); }
+      }
+    }
+    private TokenProcessor<T,TK,E,Tokenizer,Parser,Err> processor(TokenProcessor<T,TK,E,Tokenizer,Parser,Err>[] table, TK kind){
+      if (table != null && kind instanceof Enum<?> e && e.getDeclaringClass() == enumClass){
+        int o= e.ordinal();
+        return o < table.length ? table[o] : null;
+      }
+      return map.get(kind);
+    }
+    //processors by enum ordinal; null if the kinds are not all constants of one enum, then the map is used
+    private TokenProcessor<T,TK,E,Tokenizer,Parser,Err>[] byOrdinal(){
+      if (byOrdinal != null || byMap){ return byOrdinal; }
+      var classes= map.keySet().stream().map(k->k instanceof Enum<?> e ? e.getDeclaringClass() : null).distinct().toList();
+      if (classes.size() != 1 || classes.getFirst() == null){ byMap= true; return null; }
+      enumClass= classes.getFirst();
+      int size= map.keySet().stream().mapToInt(k->((Enum<?>)k).ordinal() + 1).max().orElse(0);
+      @SuppressWarnings({"unchecked","rawtypes"})
+      TokenProcessor<T,TK,E,Tokenizer,Parser,Err>[] res= new TokenProcessor[size];
+      map.forEach((k,p)->res[((Enum<?>)k).ordinal()]= p);
+      byOrdinal= res;//only once filled
+      return res;
+    }
+    private static final int chunkSize= 4096;
     private final LinkedHashMap<TK,TokenProcessor<T,TK,E,Tokenizer,Parser,Err>> map= new LinkedHashMap<>();
+    private TokenProcessor<T,TK,E,Tokenizer,Parser,Err>[] byOrdinal;
+    private Class<?> enumClass;
+    private boolean byMap;
+    private boolean allStateless= true;
+    private boolean parallel= false;
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,31 @@
+package metaParser;
+
+import java.util.List;
+
+///A lexing backend that finds the winning kind among many kinds in a single scan.
+///Kinds are identified by their index in the list given to MetaTokenizer.tokenKinds.
+///Kinds that a scanner does not handle are still matched one by one with their TokenMatch.
+public interface TokenScanner{
+  ///No handled kind matches at the start position.
+  long noMatch= -1;
+  ///The scanner can not decide at this position: all the kinds are matched one by one instead.
+  long undecided= -2;
+
+  ///Longest match at start among the handled kinds; equal lengths are resolved by lower priority, then by lower kind index.
+  ///Returns result(kind,end), noMatch or undecided. Matches must be non empty.
+  long scan(CharSequence input, int start);
+  boolean handles(int kind);
+
+  static long result(int kind, int end){
+    assert kind >= 0 && end >= 0;
+    return ((long)kind << 32) | end;
+  }
+  static int kind(long result){ return (int)(result >>> 32); }
+  static int end(long result){ return (int)result; }
+
+  ///Compiles all the TokenMatch.fromRegex kinds, and the literal, keywords, charRun and single char close delimited ones, into a single DFA.
+  ///The DFA has longest match semantic for each kind. Regexes where lookingAt may stop earlier,
+  ///as the order sensitive "a|ab" or "a*(ab)?", are not handled, so the tokens are the same as without the scanner.
+  ///Regexes using lookaround, anchors, back references, flags or lazy/possessive quantifiers, and other TokenMatch, are not handled.
+  static TokenScanner fused(List<? extends TokenKind> kinds){ return FusedScanner.of(kinds); }
+}
@@ -0,0 +1,54 @@
+package metaParser;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+///Compact form of a flat token list: parallel int arrays for kind, start, length, line and column over the source text.
+///As a List, get(i) makes the token on demand, so the table can be handed to MetaParser and buildTokenTree as is.
+///Made by MetaTokenizer.tokenize when .compact(true) is set; kind(i) is the index in kinds(),
+///that is the tokenKinds followed by SOF and EOF.
+public final class TokenTable<T extends Token<T,TK>, TK extends TokenKind> extends AbstractList<T> implements RandomAccess{
+  ///How to make a token view: usually MetaTokenizer::make.
+  public interface Maker<T, TK>{ T make(TK kind, String text, int line, int col, int endLine, int endCol, List<T> tokens); }
+  private final CharSequence source;
+  private final List<TK> kinds;
+  private final Maker<T,TK> maker;
+  private final TokenInterner interner;//may be null
+  private final int[] kind;
+  private final int[] start;
+  private final int[] length;
+  private final int[] line;
+  private final int[] col;
+  //package private: made by MetaTokenizer, that does not modify the arrays afterwards
+  TokenTable(CharSequence source, List<TK> kinds, Maker<T,TK> maker, TokenInterner interner, int[] kind, int[] start, int[] length, int[] line, int[] col){
+    assert kind.length == start.length && kind.length == length.length && kind.length == line.length && kind.length == col.length;
+    this.source= source;
+    this.kinds= kinds;
+    this.maker= maker;
+    this.interner= interner;
+    this.kind= kind;
+    this.start= start;
+    this.length= length;
+    this.line= line;
+    this.col= col;
+  }
+  public List<TK> kinds(){ return kinds; }
+  public CharSequence source(){ return source; }
+  public int kind(int i){ return kind[i]; }
+  public TK kindOf(int i){ return kinds.get(kind[i]); }
+  public int start(int i){ return start[i]; }
+  public int length(int i){ return length[i]; }
+  public int line(int i){ return line[i]; }
+  public int column(int i){ return col[i]; }
+  public String content(int i){
+    int end= start[i] + length[i];
+    return interner == null ? source.subSequence(start[i], end).toString() : interner.intern(source, start[i], end);
+  }
+  @Override public int size(){ return kind.length; }
+  ///A new token for entry i: views are not cached, so they are not identical across calls.
+  ///Tokens are contiguous, so a token ends where the next one starts; EOF ends where it starts.
+  public int endLine(int i){ return i + 1 < line.length ? line[i + 1] : line[i]; }
+  public int endColumn(int i){ return i + 1 < col.length ? col[i + 1] : col[i]; }
+  @Override public T get(int i){ return maker.make(kindOf(i), content(i), line[i], col[i], endLine(i), endColumn(i), List.of()); }
+}
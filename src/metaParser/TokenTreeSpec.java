@@ -42,6 +42,16 @@ public final class TokenTreeSpec<
     assert prev == null : "duplicate opener eater for " + opener;
     return this;
   }
+  ///A deep copy, so that a LexerSpec is not affected by later changes to this spec.
+  TokenTreeSpec<T, TK> copy(){
+    var res= new TokenTreeSpec<T, TK>();
+    openClose.forEach((k,v)->res.openClose.put(k, new LinkedHashMap<>(v)));
+    res.closers.addAll(closers);
+    barriers.forEach((k,v)->res.barriers.put(k, new LinkedHashSet<>(v)));
+    res.closerEaters.putAll(closerEaters);
+    res.openerEaters.putAll(openerEaters);
+    return res;
+  }
   boolean isBarrierFor(T current, T open){
     var bs= barriers.getOrDefault(open.kind(), Set.of());
     return bs.contains(current.kind());
@@ -1,13 +1,10 @@
 package metaParser;
 
-import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 
-class Out extends RuntimeException{ private static final long serialVersionUID= 1L; }
-
 //package private so we do not need to make private fields or to otherwise protect from the library user
 class TokenTrees<
     T extends Token<T,TK>,
@@ -32,7 +29,7 @@ class TokenTrees<
   }
   T of(ListIterator<T> it){
     var first=it.next();
-    return new Builder<>(this,new ArrayList<>(List.of(first)),it).build(first);
+    return new Builder<>(this,it).build(first);
   }
   Span spanOf(T first, T last){
     return Token.makeSpan(tokenizer.fileName(), first, last);
@@ -2,5 +2,54 @@ package metaParser;
 
 import java.util.List;
 
+///The result of MetaTokenizer.run: the significant tokens, the trivia routed aside (see MetaTokenizer.trivia)
+///and the token tree built from the significant tokens.
 public record Tokens<T extends Token<T,TK>, TK extends TokenKind>
-  (Span span, List<T> tokens, List<T> hiddenTokens, List<T> tokenTree){}
+  (Span span, List<T> tokens, List<T> hiddenTokens, List<T> tokenTree){
+  ///The trivia right before t, that is since the previous significant token, in source order.
+  ///t can be any significant token, also a group of the token tree: then its first leaf is used.
+  ///Found by position, with a binary search on hiddenTokens.
+  public List<T> leadingTrivia(T t){
+    while (!t.tokens().isEmpty()){ t= t.tokens().getFirst(); }
+    int end= firstAtOrAfter(t.line(), t.column());
+    int start= end;
+    int line= t.line();
+    int col= t.column();
+    while (start > 0 && endsAt(hiddenTokens.get(start - 1), line, col)){
+      start--;
+      line= hiddenTokens.get(start).line();
+      col= hiddenTokens.get(start).column();
+    }
+    return hiddenTokens.subList(start, end);
+  }
+  ///The trivia right after t (after its last leaf, for a group), up to the next significant token:
+  ///the leadingTrivia of that token.
+  public List<T> trailingTrivia(T t){
+    while (!t.tokens().isEmpty()){ t= t.tokens().getLast(); }
+    long tEnd= TokenEnd.of(t);
+    int line= TokenEnd.line(tEnd);
+    int col= TokenEnd.column(tEnd);
+    int start= firstAtOrAfter(line, col);
+    int end= start;
+    while (end < hiddenTokens.size() && hiddenTokens.get(end).line() == line && hiddenTokens.get(end).column() == col){
+      long hEnd= TokenEnd.of(hiddenTokens.get(end));
+      line= TokenEnd.line(hEnd);
+      col= TokenEnd.column(hEnd);
+      end++;
+    }
+    return hiddenTokens.subList(start, end);
+  }
+  private static boolean endsAt(Token<?,?> t, int line, int col){ return TokenEnd.of(t) == TokenEnd.pack(line, col); }
+  ///The index of the first hidden token starting at or after line:col.
+  private int firstAtOrAfter(int line, int col){
+    int lo= 0;
+    int hi= hiddenTokens.size();
+    while (lo < hi){
+      int mid= (lo + hi) >>> 1;
+      var m= hiddenTokens.get(mid);
+      boolean before= m.line() < line || m.line() == line && m.column() < col;
+      if (before){ lo= mid + 1; } else { hi= mid; }
+    }
+    return lo;
+  }
+}
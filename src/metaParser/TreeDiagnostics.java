@@ -67,22 +67,30 @@ record TreeDiagnostics<
   @SuppressWarnings("unchecked")
   private Optional<E> tryRemove(T open, T stop, LikelyCause l, T remove){
     if(remove.is(tz.sof(),tz.eof())){ return Optional.empty(); }
-    List<T> ts= tz.tokensForTree().stream().filter(t->t!=remove).toList();
+    List<T> ts= tz.tokensForTree().stream().filter(t->!samePlace(t, remove)).toList();
     int res1= TokenTreeBulder.ofRecovery(spec,tz, tz.tokensForTree());
     int res2= TokenTreeBulder.ofRecovery(spec,tz, ts);
     var progress= ts.size() == res2 || res2 >= res1 + 5;
     if (!progress){ return Optional.empty(); }
     return Optional.of(error(open,stop,l));    
   }
+  //by position rather than identity: a TokenTable makes a new view at each get
+  private boolean samePlace(T a, T b){
+    return a == b || (a.line() == b.line() && a.column() == b.column() && a.kind().equals(b.kind()));
+  }
   private Optional<E> tryEatenCloserBetween(T open, T stop){ return tryEatenBetween(open, stop, false); }
   private Optional<E> tryEatenOpenerBetween(T open, T stop){ return tryEatenBetween(open, stop, true); }
 
   private List<T> betweenExclusive(T a, T b, List<T> tokens){
-    int start= tokens.indexOf(a);
-    int end= tokens.indexOf(b);
-    assert start < end : "order mismatch";
+    int start= indexOf(tokens, a);
+    int end= indexOf(tokens, b);
+    assert start >= 0 && start < end : "order mismatch";
     return tokens.subList(start + 1, end);
   }
+  private int indexOf(List<T> tokens, T t){
+    for (int i= 0; i < tokens.size(); i++){ if (samePlace(tokens.get(i), t)){ return i; } }
+    return -1;
+  }
   private E eaterCloserBetween(T open, T stop, List<TK> expect, T frag, T token){
     return tz.errFactory().eatenCloserBetween(open, stop, expect, frag, token, tz.self());
   }
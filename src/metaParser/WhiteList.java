@@ -0,0 +1,28 @@
+package metaParser;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+//package private: the allowed chars of MetaTokenizer.whiteList as a lookup table.
+//ASCII is looked up by index, other code points by binary search.
+final class WhiteList{
+  private final boolean[] ascii= new boolean[128];
+  private final int[] others;
+  private final int[] asciiRanges;//inclusive bounds: lo0, hi0, lo1, hi1...
+  WhiteList(String chars){
+    chars.codePoints().filter(cp->cp < 128).forEach(cp->ascii[cp]= true);
+    var ranges= new Ints(8);
+    for (int c= 0; c < 128; c++){
+      if (!ascii[c]){ continue; }
+      int lo= c;
+      while (c + 1 < 128 && ascii[c + 1]){ c++; }
+      ranges.add(lo);
+      ranges.add(c);
+    }
+    asciiRanges= ranges.toArray();
+    //like String.indexOf, the halves of a surrogate pair are allowed on their own too
+    others= IntStream.concat(chars.codePoints(), chars.chars()).filter(cp->cp >= 128).sorted().distinct().toArray();
+  }
+  int[] asciiRanges(){ return asciiRanges; }
+  boolean allows(int cp){ return cp < 128 ? ascii[cp] : Arrays.binarySearch(others, cp) >= 0; }
+}
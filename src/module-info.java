@@ -5,4 +5,4 @@ module Commons {
   exports tools;
   requires jdk.compiler;
   requires jdk.jartool;
-}
\ No newline at end of file
+}
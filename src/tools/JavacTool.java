@@ -2,6 +2,7 @@ package tools;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.URISyntaxException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
@@ -58,7 +59,27 @@ public final class JavacTool{
     return b.toString();
   }
   private static String joinJvmOpts(List<String> opts){ return Join.of(opts,""," ","",""); }
-  public static void javac(List<Path> srcs, Path classesDir){}
+  ///Compiles the sources under the srcs directories against this library and the current class path.
+  public static String javac(List<Path> srcs, Path classesDir){
+    srcs.forEach(src->check(Files.isDirectory(src), "Not a directory: "+src));
+    Fs.cleanDir(classesDir); Fs.ensureDir(classesDir);
+    var args= new ArrayList<String>(16);
+    args.addAll(javacArgs);
+    args.add("-d"); args.add(classesDir.toString());
+    args.add("-cp"); args.add(selfCp());
+    srcs.forEach(src->Fs.walkV(src,s->s
+      .filter(p->p.toString().endsWith(".java"))
+      .forEach(p->args.add(p.toString()))));
+    return Fs.runTool("javac", args);
+  }
+  private static String selfCp(){
+    var self= Fs.of(()->{
+      try{ return Path.of(JavacTool.class.getProtectionDomain().getCodeSource().getLocation().toURI()).toString(); }
+      catch(URISyntaxException e){ throw new IOException(e); }
+    });
+    var cp= System.getProperty("java.class.path", "");
+    return cp.isEmpty() ? self : self + File.pathSeparator + cp;
+  }
   public static final String launcherKey= "app.launcher";
   public static final String appDirKey= "app.dir";
   public static final String consoleKey= "console";
@@ -0,0 +1,4 @@
+module CommonsVector {
+  exports vectorScan;
+  requires jdk.incubator.vector;
+}
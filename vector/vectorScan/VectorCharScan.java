@@ -0,0 +1,43 @@
+package vectorScan;
+
+import java.util.function.IntConsumer;
+
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+///The vector part of the bulk scan of MetaTokenizer.prepare, 16 to 32 chars at a time depending on the hardware.
+///This is the optional module CommonsVector: the only one depending on the incubating jdk.incubator.vector.
+///Commons never requires it; it looks this class up reflectively (metaParser.CharScan),
+///and uses it only when this module is resolved, for example with --add-modules CommonsVector.
+public final class VectorCharScan{
+  private VectorCharScan(){}
+  private static final VectorSpecies<Short> species= ShortVector.SPECIES_PREFERRED;
+  ///Scans buf[from,to) a vector at a time, stopping at the first char that is not ASCII, is '\r'
+  ///or is outside all the asciiRanges (inclusive bounds lo0, hi0, lo1, hi1..., or null for no restriction).
+  ///Returns the index of that char, or the start of the tail shorter than a vector if there is none:
+  ///the caller scans from there with the scalar loop.
+  ///For each '\n' before the returned index, base+index+1 is given to lineStarts, if not null.
+  public static int plainPrefix(char[] buf, int from, int to, int[] asciiRanges, IntConsumer lineStarts, int base){
+    int step= species.length();
+    int i= from;
+    for (; i + step <= to; i += step){
+      var v= ShortVector.fromCharArray(species, buf, i);
+      var bad= v.compare(VectorOperators.UNSIGNED_GE, (short)128).or(v.eq((short)'\r'));
+      if (asciiRanges != null){
+        VectorMask<Short> ok= species.maskAll(false);
+        for (int r= 0; r < asciiRanges.length; r += 2){
+          ok= ok.or(v.sub((short)asciiRanges[r]).compare(VectorOperators.UNSIGNED_LE, (short)(asciiRanges[r + 1] - asciiRanges[r])));
+        }
+        bad= bad.or(ok.not());
+      }
+      long newLines= lineStarts == null ? 0 : v.eq((short)'\n').toLong();
+      int stop= bad.firstTrue();
+      if (stop < step){ newLines &= (1L << stop) - 1; }
+      for (; newLines != 0; newLines &= newLines - 1){ lineStarts.accept(base + i + Long.numberOfTrailingZeros(newLines) + 1); }
+      if (stop < step){ return i + stop; }
+    }
+    return i;
+  }
+}